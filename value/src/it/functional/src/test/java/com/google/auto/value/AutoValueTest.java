@@ -17,22 +17,38 @@ package com.google.auto.value;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.testing.EqualsTester;
 import com.google.common.testing.SerializableTester;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.io.PushbackReader;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -157,6 +173,60 @@ public class AutoValueTest extends TestCase {
     assertEquals(4294967297L, serialVersionUID);
   }
 
+  @AutoValue(serializationProxy = true)
+  public abstract static class SerializeThroughProxy<T extends Serializable>
+      implements Serializable {
+    public abstract int integer();
+    public abstract char character();
+    public abstract String string();
+    @Nullable public abstract T nullable();
+    public abstract byte[] bytes();
+    public static <T extends Serializable> SerializeThroughProxy<T> create(
+        int integer, char character, String string, T nullable, byte[] bytes) {
+      return new AutoValue_AutoValueTest_SerializeThroughProxy<T>(
+          integer, character, string, nullable, bytes);
+    }
+  }
+
+  @AutoValue
+  public abstract static class SerializeWithoutProxy implements Serializable {
+    public abstract int integer();
+    public abstract char character();
+    public abstract String string();
+    @Nullable public abstract String nullable();
+    public abstract byte[] bytes();
+    public static SerializeWithoutProxy create(
+        int integer, char character, String string, String nullable, byte[] bytes) {
+      return new AutoValue_AutoValueTest_SerializeWithoutProxy(
+          integer, character, string, nullable, bytes);
+    }
+  }
+
+  public void testSerializeThroughProxy() throws Exception {
+    SerializeThroughProxy<BigInteger> instance =
+        SerializeThroughProxy.create(23, 'x', "23", BigInteger.valueOf(23), new byte[] {2, 3});
+    assertEquals(instance, SerializableTester.reserialize(instance));
+    SerializeThroughProxy<BigInteger> withNull =
+        SerializeThroughProxy.create(23, 'x', "23", null, new byte[0]);
+    assertEquals(withNull, SerializableTester.reserialize(withNull));
+  }
+
+  public void testSerializationProxyIsSmaller() throws Exception {
+    SerializeThroughProxy<String> withProxy =
+        SerializeThroughProxy.create(23, 'x', "23", "skidoo", new byte[] {2, 3});
+    SerializeWithoutProxy withoutProxy =
+        SerializeWithoutProxy.create(23, 'x', "23", "skidoo", new byte[] {2, 3});
+    assertTrue(serializedSize(withProxy) < serializedSize(withoutProxy));
+  }
+
+  private static int serializedSize(Object object) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(object);
+    out.close();
+    return bytes.size();
+  }
+
   @AutoValue
   abstract static class LongProperty {
     public abstract long longProperty();
@@ -463,6 +533,229 @@ public class AutoValueTest extends TestCase {
         .testEquals();
   }
 
+  static class CountingEquals {
+    int equalsCount;
+
+    @Override public boolean equals(Object o) {
+      equalsCount++;
+      return o instanceof CountingEquals;
+    }
+
+    @Override public int hashCode() {
+      return 0;
+    }
+  }
+
+  @AutoValue
+  abstract static class ComparisonOrder {
+    abstract CountingEquals counting();
+    abstract List<String> list();
+    abstract String string();
+    abstract RetentionPolicy policy();
+    abstract int id();
+    static ComparisonOrder create(
+        CountingEquals counting, List<String> list, String string, RetentionPolicy policy, int id) {
+      return new AutoValue_AutoValueTest_ComparisonOrder(counting, list, string, policy, id);
+    }
+  }
+
+  public void testEqualsComparesCheapPropertiesFirst() throws Exception {
+    CountingEquals counting = new CountingEquals();
+    List<String> list = Arrays.asList("a", "b");
+    ComparisonOrder base =
+        ComparisonOrder.create(counting, list, "string", RetentionPolicy.SOURCE, 1);
+    ComparisonOrder differentId =
+        ComparisonOrder.create(counting, list, "string", RetentionPolicy.SOURCE, 2);
+    ComparisonOrder differentPolicy =
+        ComparisonOrder.create(counting, list, "string", RetentionPolicy.CLASS, 1);
+    ComparisonOrder differentString =
+        ComparisonOrder.create(counting, list, "other", RetentionPolicy.SOURCE, 1);
+    assertFalse(base.equals(differentId));
+    assertFalse(base.equals(differentPolicy));
+    assertFalse(base.equals(differentString));
+    assertEquals(0, counting.equalsCount);
+    ComparisonOrder same =
+        ComparisonOrder.create(counting, list, "string", RetentionPolicy.SOURCE, 1);
+    assertTrue(base.equals(same));
+    assertEquals(1, counting.equalsCount);
+  }
+
+  @AutoValue
+  abstract static class ArrayAndString {
+    abstract int[] ints();
+    abstract String string();
+    static ArrayAndString create(int[] ints, String string) {
+      return new AutoValue_AutoValueTest_ArrayAndString(ints, string);
+    }
+  }
+
+  private static ArrayAndString foreignArrayAndString(final int[] ints, final String string) {
+    return new ArrayAndString() {
+      @Override int[] ints() {
+        return ints.clone();
+      }
+
+      @Override String string() {
+        return string;
+      }
+    };
+  }
+
+  public void testEqualsWithForeignImplementation() throws Exception {
+    ArrayAndString instance = ArrayAndString.create(new int[] {1, 2}, "string");
+    assertTrue(instance.equals(ArrayAndString.create(new int[] {1, 2}, "string")));
+    assertFalse(instance.equals(ArrayAndString.create(new int[] {1, 3}, "string")));
+    assertTrue(instance.equals(foreignArrayAndString(new int[] {1, 2}, "string")));
+    assertFalse(instance.equals(foreignArrayAndString(new int[] {1, 2}, "other")));
+    assertFalse(instance.equals(foreignArrayAndString(new int[] {2, 1}, "string")));
+  }
+
+  @AutoValue(packFields = true)
+  abstract static class Packed {
+    abstract boolean flag();
+    abstract byte b();
+    abstract String string();
+    abstract RetentionPolicy policy();
+    @Nullable abstract RetentionPolicy nullablePolicy();
+    abstract char c();
+    abstract short s();
+    abstract boolean otherFlag();
+    static Packed create(boolean flag, byte b, String string, RetentionPolicy policy,
+        RetentionPolicy nullablePolicy, char c, short s, boolean otherFlag) {
+      return new AutoValue_AutoValueTest_Packed(
+          flag, b, string, policy, nullablePolicy, c, s, otherFlag);
+    }
+  }
+
+  @AutoValue
+  abstract static class Unpacked {
+    abstract boolean flag();
+    abstract byte b();
+    abstract String string();
+    abstract RetentionPolicy policy();
+    @Nullable abstract RetentionPolicy nullablePolicy();
+    abstract char c();
+    abstract short s();
+    abstract boolean otherFlag();
+    static Unpacked create(boolean flag, byte b, String string, RetentionPolicy policy,
+        RetentionPolicy nullablePolicy, char c, short s, boolean otherFlag) {
+      return new AutoValue_AutoValueTest_Unpacked(
+          flag, b, string, policy, nullablePolicy, c, s, otherFlag);
+    }
+  }
+
+  public void testPackedFields() throws Exception {
+    Packed packed = Packed.create(
+        true, (byte) -2, "string", RetentionPolicy.RUNTIME, null, '\uffff', (short) -3, false);
+    assertTrue(packed.flag());
+    assertEquals((byte) -2, packed.b());
+    assertEquals("string", packed.string());
+    assertEquals(RetentionPolicy.RUNTIME, packed.policy());
+    assertNull(packed.nullablePolicy());
+    assertEquals('\uffff', packed.c());
+    assertEquals((short) -3, packed.s());
+    assertFalse(packed.otherFlag());
+    Unpacked unpacked = Unpacked.create(
+        true, (byte) -2, "string", RetentionPolicy.RUNTIME, null, '\uffff', (short) -3, false);
+    assertEquals(unpacked.hashCode(), packed.hashCode());
+    assertEquals(
+        unpacked.toString().replace("Unpacked", "Packed"), packed.toString());
+
+    // The six properties that can be packed need only 44 bits, so they share one field.
+    int instanceFields = 0;
+    for (Field field : AutoValue_AutoValueTest_Packed.class.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) {
+        instanceFields++;
+      }
+    }
+    assertEquals(3, instanceFields);
+
+    new EqualsTester()
+        .addEqualityGroup(
+            packed,
+            Packed.create(true, (byte) -2, "string", RetentionPolicy.RUNTIME, null, '\uffff',
+                (short) -3, false))
+        .addEqualityGroup(
+            Packed.create(false, (byte) -2, "string", RetentionPolicy.RUNTIME, null, '\uffff',
+                (short) -3, false))
+        .addEqualityGroup(
+            Packed.create(true, (byte) -1, "string", RetentionPolicy.RUNTIME, null, '\uffff',
+                (short) -3, false))
+        .addEqualityGroup(
+            Packed.create(true, (byte) -2, "other", RetentionPolicy.RUNTIME, null, '\uffff',
+                (short) -3, false))
+        .addEqualityGroup(
+            Packed.create(true, (byte) -2, "string", RetentionPolicy.SOURCE, null, '\uffff',
+                (short) -3, false))
+        .addEqualityGroup(
+            Packed.create(true, (byte) -2, "string", RetentionPolicy.RUNTIME,
+                RetentionPolicy.RUNTIME, '\uffff', (short) -3, false))
+        .addEqualityGroup(
+            Packed.create(true, (byte) -2, "string", RetentionPolicy.RUNTIME, null, 'x',
+                (short) -3, false))
+        .addEqualityGroup(
+            Packed.create(true, (byte) -2, "string", RetentionPolicy.RUNTIME, null, '\uffff',
+                (short) 3, false))
+        .addEqualityGroup(
+            Packed.create(true, (byte) -2, "string", RetentionPolicy.RUNTIME, null, '\uffff',
+                (short) -3, true))
+        .testEquals();
+  }
+
+  @AutoValue(packFields = true)
+  abstract static class PackedInTwoFields {
+    abstract short s1();
+    abstract short s2();
+    abstract short s3();
+    abstract short s4();
+    abstract short s5();
+    static PackedInTwoFields create(short s1, short s2, short s3, short s4, short s5) {
+      return new AutoValue_AutoValueTest_PackedInTwoFields(s1, s2, s3, s4, s5);
+    }
+  }
+
+  public void testPackedInTwoFields() throws Exception {
+    PackedInTwoFields instance = PackedInTwoFields.create(
+        (short) 1, (short) -2, Short.MAX_VALUE, Short.MIN_VALUE, (short) -1);
+    assertEquals(1, instance.s1());
+    assertEquals(-2, instance.s2());
+    assertEquals(Short.MAX_VALUE, instance.s3());
+    assertEquals(Short.MIN_VALUE, instance.s4());
+    assertEquals(-1, instance.s5());
+    assertEquals(long.class, AutoValue_AutoValueTest_PackedInTwoFields.class
+        .getDeclaredField("bits0").getType());
+    assertEquals(int.class, AutoValue_AutoValueTest_PackedInTwoFields.class
+        .getDeclaredField("bits1").getType());
+    assertFalse(instance.equals(PackedInTwoFields.create(
+        (short) 1, (short) -2, Short.MAX_VALUE, Short.MIN_VALUE, (short) 0)));
+  }
+
+  @AutoValue
+  abstract static class SharedArrays {
+    @SharedArray abstract byte[] shared();
+    @SharedArray @Nullable abstract int[] nullableShared();
+    abstract byte[] copied();
+    static SharedArrays create(byte[] shared, int[] nullableShared, byte[] copied) {
+      return new AutoValue_AutoValueTest_SharedArrays(shared, nullableShared, copied);
+    }
+  }
+
+  public void testSharedArray() throws Exception {
+    byte[] shared = {1, 2, 3};
+    int[] nullableShared = {4, 5};
+    byte[] copied = {6};
+    SharedArrays instance = SharedArrays.create(shared, nullableShared, copied);
+    assertSame(shared, instance.shared());
+    assertSame(nullableShared, instance.nullableShared());
+    assertNotSame(copied, instance.copied());
+    assertTrue(Arrays.equals(copied, instance.copied()));
+    assertNull(SharedArrays.create(shared, null, copied).nullableShared());
+    new EqualsTester()
+        .addEqualityGroup(instance, SharedArrays.create(shared.clone(), nullableShared, copied))
+        .addEqualityGroup(SharedArrays.create(shared, null, copied))
+        .testEquals();
+  }
+
   @AutoValue
   abstract static class GenericProperties {
     abstract Map<String, Integer> simpleMap();
@@ -612,6 +905,210 @@ public class AutoValueTest extends TestCase {
     assertEquals("Bazinga{foo}", instance.toString());
   }
 
+  @AutoValue
+  abstract static class AppendableInner {
+    abstract int id();
+    @Nullable abstract String label();
+    static AppendableInner create(int id, String label) {
+      return new AutoValue_AutoValueTest_AppendableInner(id, label);
+    }
+
+    abstract StringBuilder appendTo(StringBuilder sb);
+  }
+
+  @AutoValue
+  abstract static class AppendableOuter {
+    abstract String name();
+    @Nullable abstract AppendableInner inner();
+    abstract long[] longs();
+    static AppendableOuter create(String name, AppendableInner inner, long[] longs) {
+      return new AutoValue_AutoValueTest_AppendableOuter(name, inner, longs);
+    }
+  }
+
+  public void testAppendTo() throws Exception {
+    AppendableInner inner = AppendableInner.create(23, null);
+    assertEquals("AppendableInner{id=23, label=null}", inner.toString());
+    StringBuilder sb = new StringBuilder("prefix:");
+    assertSame(sb, inner.appendTo(sb));
+    assertEquals("prefix:AppendableInner{id=23, label=null}", sb.toString());
+
+    AppendableOuter outer = AppendableOuter.create("foo", inner, new long[] {1, 2});
+    String expected = "AppendableOuter{name=foo, inner=AppendableInner{id=23, label=null}, "
+        + "longs=[1, 2]}";
+    assertEquals(expected, outer.toString());
+    sb = new StringBuilder();
+    ((AutoValue_AutoValueTest_AppendableOuter) outer).appendTo(sb).append('!');
+    assertEquals(expected + "!", sb.toString());
+    assertEquals("AppendableOuter{name=bar, inner=null, longs=[]}",
+        AppendableOuter.create("bar", null, new long[0]).toString());
+  }
+
+  // With this many @Nullable properties, the generated equals(Object) would be too big for HotSpot's
+  // JIT compiler, so it is split into helper methods.
+  @AutoValue
+  abstract static class Wide {
+    @Nullable abstract String s00();
+    @Nullable abstract String s01();
+    @Nullable abstract String s02();
+    @Nullable abstract String s03();
+    @Nullable abstract String s04();
+    @Nullable abstract String s05();
+    @Nullable abstract String s06();
+    @Nullable abstract String s07();
+    @Nullable abstract String s08();
+    @Nullable abstract String s09();
+    @Nullable abstract String s10();
+    @Nullable abstract String s11();
+    @Nullable abstract String s12();
+    @Nullable abstract String s13();
+    @Nullable abstract String s14();
+    @Nullable abstract String s15();
+    @Nullable abstract String s16();
+    @Nullable abstract String s17();
+    @Nullable abstract String s18();
+    @Nullable abstract String s19();
+    @Nullable abstract String s20();
+    @Nullable abstract String s21();
+    @Nullable abstract String s22();
+    @Nullable abstract String s23();
+    @Nullable abstract String s24();
+    @Nullable abstract String s25();
+    @Nullable abstract String s26();
+    @Nullable abstract String s27();
+    @Nullable abstract String s28();
+    @Nullable abstract String s29();
+    @Nullable abstract String s30();
+    @Nullable abstract String s31();
+    @Nullable abstract String s32();
+    @Nullable abstract String s33();
+    @Nullable abstract String s34();
+    @Nullable abstract String s35();
+    @Nullable abstract String s36();
+    @Nullable abstract String s37();
+    @Nullable abstract String s38();
+    @Nullable abstract String s39();
+    @Nullable abstract String s40();
+    @Nullable abstract String s41();
+    @Nullable abstract String s42();
+    @Nullable abstract String s43();
+    @Nullable abstract String s44();
+    @Nullable abstract String s45();
+    @Nullable abstract String s46();
+    @Nullable abstract String s47();
+    @Nullable abstract String s48();
+    @Nullable abstract String s49();
+    @Nullable abstract String s50();
+    @Nullable abstract String s51();
+    @Nullable abstract String s52();
+    @Nullable abstract String s53();
+    @Nullable abstract String s54();
+    @Nullable abstract String s55();
+    @Nullable abstract String s56();
+    @Nullable abstract String s57();
+    @Nullable abstract String s58();
+    @Nullable abstract String s59();
+    @Nullable abstract String s60();
+    @Nullable abstract String s61();
+    @Nullable abstract String s62();
+    @Nullable abstract String s63();
+    @Nullable abstract String s64();
+    @Nullable abstract String s65();
+    @Nullable abstract String s66();
+    @Nullable abstract String s67();
+    @Nullable abstract String s68();
+    @Nullable abstract String s69();
+  }
+
+  private static Wide newWide(String... values) throws Exception {
+    Constructor<?> constructor = AutoValue_AutoValueTest_Wide.class.getDeclaredConstructors()[0];
+    return (Wide) constructor.newInstance((Object[]) values);
+  }
+
+  public void testSplitEquals() throws Exception {
+    String[] values = new String[70];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (i % 3 == 0) ? null : "v" + i;
+    }
+    Wide wide = newWide(values);
+    values[68] = "different";
+    Wide different = newWide(values);
+    values[68] = "v68";
+    new EqualsTester()
+        .addEqualityGroup(wide, newWide(values.clone()))
+        .addEqualityGroup(different)
+        .testEquals();
+    assertTrue(wide.toString().startsWith("Wide{s00=null, s01=v1, s02=v2, s03=null,"));
+    Set<String> helpers = new HashSet<String>();
+    for (Method method : AutoValue_AutoValueTest_Wide.class.getDeclaredMethods()) {
+      helpers.add(method.getName());
+    }
+    assertTrue(helpers.toString(), helpers.contains("equalFields0"));
+    assertTrue(helpers.toString(), helpers.contains("equalProperties0"));
+    assertFalse(helpers.toString(), helpers.contains("hashCode0"));
+  }
+
+  @AutoValue(toStringElementLimit = 3)
+  abstract static class Bounded {
+    abstract double[] doubles();
+    @Nullable abstract char[] chars();
+    abstract List<String> list();
+    abstract Map<String, Integer> map();
+    @Redacted abstract String password();
+
+    static Bounded create(
+        double[] doubles, char[] chars, List<String> list, Map<String, Integer> map) {
+      return new AutoValue_AutoValueTest_Bounded(doubles, chars, list, map, "secret");
+    }
+  }
+
+  public void testToStringElementLimit() {
+    Map<String, Integer> map = ImmutableMap.of("a", 1, "b", 2, "c", 3, "d", 4);
+    Bounded big = Bounded.create(
+        new double[1000], null, Collections.nCopies(100000, "x"), map);
+    assertEquals("Bounded{doubles=[0.0, 0.0, 0.0, ...(997 more)], chars=null, "
+        + "list=[x, x, x, ...(99997 more)], map={a=1, b=2, c=3, ...(1 more)}, "
+        + "password=<redacted>}", big.toString());
+
+    // Up to the limit, the text is the same as from Arrays.toString and the collections.
+    Bounded small = Bounded.create(new double[] {1.5, -2}, new char[] {'h', 'i', '!'},
+        ImmutableList.<String>of(), ImmutableMap.of("a", 1, "b", 2, "c", 3));
+    assertEquals("Bounded{doubles=[1.5, -2.0], chars=[h, i, !], list=[], map={a=1, b=2, c=3}, "
+        + "password=<redacted>}", small.toString());
+    assertEquals("secret", small.password());
+  }
+
+  @AutoValue(mutable = true, packFields = true)
+  abstract static class Token {
+    @ExcludeFromEquals abstract int offset();
+    abstract byte kind();
+    abstract boolean keyword();
+    abstract String text();
+    @ExcludeFromEquals(includeInToString = false) @Nullable abstract Object cache();
+
+    static Token create(int offset, int kind, boolean keyword, String text, Object cache) {
+      return new AutoValue_AutoValueTest_Token(offset, (byte) kind, keyword, text, cache);
+    }
+  }
+
+  public void testExcludeFromEquals() {
+    Token first = Token.create(10, 3, true, "if", null);
+    Token second = Token.create(250, 3, true, "if", new Object());
+    assertEquals(first, second);
+    assertEquals(first.hashCode(), second.hashCode());
+    assertEquals(250, second.offset());
+    assertNotNull(second.cache());
+    assertFalse(first.equals(Token.create(10, 4, true, "if", null)));
+    assertFalse(first.equals(Token.create(10, 3, false, "if", null)));
+    assertFalse(first.equals(Token.create(10, 3, true, "else", null)));
+    assertEquals("Token{offset=250, kind=3, keyword=true, text=if}", second.toString());
+
+    AutoValue_AutoValueTest_Token_Mutable scratch =
+        new AutoValue_AutoValueTest_Token_Mutable().copyFrom(first).offset(99);
+    assertEquals(first.hashCode(), scratch.hashCode());
+    assertEquals(new AutoValue_AutoValueTest_Token_Mutable().copyFrom(second), scratch);
+  }
+
   @AutoValue
   abstract static class AbstractToString {
     abstract String string();
@@ -813,6 +1310,789 @@ public class AutoValueTest extends TestCase {
     assertEquals(2, observer.hashCodeCount);
   }
 
+  @AutoValue(cacheHashCode = true)
+  abstract static class CachedHashCode {
+    abstract HashCodeObserver hashCodeObserver();
+    abstract int[] ints();
+    static CachedHashCode create(HashCodeObserver hashCodeObserver, int[] ints) {
+      return new AutoValue_AutoValueTest_CachedHashCode(hashCodeObserver, ints);
+    }
+  }
+
+  public void testHashCodeCached() {
+    HashCodeObserver observer = new HashCodeObserver();
+    CachedHashCode cached = CachedHashCode.create(observer, new int[] {1, 2, 3});
+    MaybeCachedHashCode notCached = MaybeCachedHashCode.create(new HashCodeObserver(), 17);
+    int hash1 = cached.hashCode();
+    int hash2 = cached.hashCode();
+    assertEquals(hash1, hash2);
+    assertEquals(1, observer.hashCodeCount);
+    new EqualsTester()
+        .addEqualityGroup(cached, CachedHashCode.create(observer, new int[] {1, 2, 3}))
+        .addEqualityGroup(CachedHashCode.create(observer, new int[] {1, 2, 4}))
+        .addEqualityGroup(notCached)
+        .testEquals();
+  }
+
+  public void testCachedHashCodeSameAsUncached() {
+    HashCodeObserver observer = new HashCodeObserver();
+    int[] ints = {6, 28, 496};
+    int expected = 1;
+    expected *= 1000003;
+    expected ^= observer.hashCode();
+    expected *= 1000003;
+    expected ^= Arrays.hashCode(ints);
+    assertEquals(expected, CachedHashCode.create(observer, ints).hashCode());
+  }
+
+  @AutoValue
+  abstract static class PlainPoint {
+    abstract double x();
+    static PlainPoint create(double x) {
+      return new AutoValue_AutoValueTest_PlainPoint(x);
+    }
+  }
+
+  @AutoValue(hashStrategy = AutoValue.HashStrategy.MIXED)
+  abstract static class MixedPoint {
+    abstract double x();
+    static MixedPoint create(double x) {
+      return new AutoValue_AutoValueTest_MixedPoint(x);
+    }
+  }
+
+  @AutoValue(hashStrategy = AutoValue.HashStrategy.SEEDED)
+  abstract static class SeededPoint {
+    abstract double x();
+    abstract String label();
+    static SeededPoint create(double x, String label) {
+      return new AutoValue_AutoValueTest_SeededPoint(x, label);
+    }
+  }
+
+  public void testHashStrategy() {
+    // Small whole doubles differ only in their high bits, so with the standard hash they fall into
+    // very few of the buckets of a table that uses the low bits.
+    Set<Integer> plainBuckets = new HashSet<Integer>();
+    Set<Integer> mixedBuckets = new HashSet<Integer>();
+    Set<Integer> seededBuckets = new HashSet<Integer>();
+    for (int i = 0; i < 4096; i++) {
+      plainBuckets.add(PlainPoint.create(i).hashCode() & 4095);
+      mixedBuckets.add(MixedPoint.create(i).hashCode() & 4095);
+      seededBuckets.add(SeededPoint.create(i, "p").hashCode() & 4095);
+    }
+    assertTrue(plainBuckets.size() < 100);
+    assertTrue(mixedBuckets.size() > 2000);
+    assertTrue(seededBuckets.size() > 2000);
+    new EqualsTester()
+        .addEqualityGroup(MixedPoint.create(1.5), MixedPoint.create(1.5))
+        .addEqualityGroup(MixedPoint.create(2.5))
+        .addEqualityGroup(SeededPoint.create(1.5, "a"), SeededPoint.create(1.5, "a"))
+        .addEqualityGroup(SeededPoint.create(1.5, "b"))
+        .testEquals();
+  }
+
+  @AutoValue
+  abstract static class MemoizedMethods {
+    int derivedCount;
+    int nullableCount;
+    int primitiveCount;
+
+    abstract String string();
+
+    @Memoized
+    String derived() {
+      derivedCount++;
+      return string().toUpperCase();
+    }
+
+    @Memoized
+    @Nullable
+    String nullable() {
+      nullableCount++;
+      return null;
+    }
+
+    @Memoized
+    protected int primitive() {
+      primitiveCount++;
+      return string().length();
+    }
+
+    @Memoized
+    String notNullable() {
+      return null;
+    }
+
+    static MemoizedMethods create(String string) {
+      return new AutoValue_AutoValueTest_MemoizedMethods(string);
+    }
+  }
+
+  public void testMemoized() throws Exception {
+    MemoizedMethods instance = MemoizedMethods.create("abc");
+    assertEquals("ABC", instance.derived());
+    assertEquals("ABC", instance.derived());
+    assertEquals(1, instance.derivedCount);
+    assertNull(instance.nullable());
+    assertNull(instance.nullable());
+    assertEquals(1, instance.nullableCount);
+    assertEquals(3, instance.primitive());
+    assertEquals(3, instance.primitive());
+    assertEquals(1, instance.primitiveCount);
+    assertEquals("MemoizedMethods{string=abc}", instance.toString());
+    assertEquals(MemoizedMethods.create("abc"), instance);
+    assertEquals(MemoizedMethods.create("abc").hashCode(), instance.hashCode());
+
+    Method nullable = AutoValue_AutoValueTest_MemoizedMethods.class.getDeclaredMethod("nullable");
+    assertTrue(nullable.isAnnotationPresent(Nullable.class));
+  }
+
+  public void testMemoizedNotNullable() throws Exception {
+    MemoizedMethods instance = MemoizedMethods.create("abc");
+    try {
+      instance.notNullable();
+      fail("Memoized method returned null although it is not @Nullable");
+    } catch (NullPointerException e) {
+      assertTrue(e.getMessage().contains("notNullable"));
+    }
+  }
+
+  @AutoValue(intern = true)
+  abstract static class WeaklyInterned {
+    abstract String key();
+    abstract int value();
+
+    static WeaklyInterned create(String key, int value) {
+      return AutoValue_AutoValueTest_WeaklyInterned.intern(
+          new AutoValue_AutoValueTest_WeaklyInterned(key, value));
+    }
+  }
+
+  public void testWeaklyInterned() {
+    WeaklyInterned instance1 = WeaklyInterned.create("foo", 23);
+    WeaklyInterned instance2 = WeaklyInterned.create(new String("foo"), 23);
+    WeaklyInterned instance3 = WeaklyInterned.create("foo", 17);
+    assertSame(instance1, instance2);
+    assertNotSame(instance1, instance3);
+    assertEquals("foo", instance3.key());
+    assertEquals(17, instance3.value());
+  }
+
+  public void testWeaklyInternedConcurrently() throws Exception {
+    // Threads interning the same values concurrently, through different locks for different
+    // values, still agree on one canonical instance for each value.
+    final int count = 1000;
+    final WeaklyInterned[][] results = new WeaklyInterned[4][count];
+    Thread[] threads = new Thread[results.length];
+    for (int t = 0; t < threads.length; t++) {
+      final WeaklyInterned[] threadResults = results[t];
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < count; i++) {
+            threadResults[i] = WeaklyInterned.create(new String("concurrent"), i);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < count; i++) {
+      for (WeaklyInterned[] threadResults : results) {
+        assertSame(results[0][i], threadResults[i]);
+      }
+      assertEquals(i, results[0][i].value());
+    }
+  }
+
+  @AutoValue(intern = true, internMaximumSize = 2)
+  abstract static class BoundedInterned<T> {
+    abstract T value();
+
+    static <T> BoundedInterned<T> create(T value) {
+      return AutoValue_AutoValueTest_BoundedInterned.intern(
+          new AutoValue_AutoValueTest_BoundedInterned<T>(value));
+    }
+  }
+
+  public void testBoundedInterned() {
+    BoundedInterned<String> foo = BoundedInterned.create("foo");
+    assertSame(foo, BoundedInterned.create(new String("foo")));
+    BoundedInterned<String> bar = BoundedInterned.create("bar");
+    assertSame(foo, BoundedInterned.create("foo"));
+    // Interning baz evicts the least recently used canonical instance, which is bar.
+    BoundedInterned.create("baz");
+    assertSame(foo, BoundedInterned.create("foo"));
+    BoundedInterned<String> newBar = BoundedInterned.create("bar");
+    assertNotSame(bar, newBar);
+    assertEquals(bar, newBar);
+  }
+
+  @AutoValue(builder = true)
+  abstract static class Built<T> {
+    abstract int id();
+    abstract double weight();
+    abstract List<T> list();
+    @Nullable abstract String label();
+
+    static <T> AutoValue_AutoValueTest_Built_Builder<T> builder() {
+      return new AutoValue_AutoValueTest_Built_Builder<T>();
+    }
+  }
+
+  public void testBuilder() {
+    List<String> list = ImmutableList.of("foo");
+    Built<String> built = Built.<String>builder()
+        .id(23)
+        .weight(1.5)
+        .list(list)
+        .build();
+    assertEquals(23, built.id());
+    assertEquals(1.5, built.weight());
+    assertEquals(list, built.list());
+    assertNull(built.label());
+  }
+
+  public void testBuilderMissingProperties() {
+    AutoValue_AutoValueTest_Built_Builder<String> builder =
+        Built.<String>builder().weight(1.5).label("label");
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Missing required properties: id list", e.getMessage());
+    }
+  }
+
+  public void testBuilderReset() {
+    AutoValue_AutoValueTest_Built_Builder<String> builder = Built.builder();
+    List<String> list = ImmutableList.of();
+    Built<String> first = builder.id(1).weight(1.0).list(list).label("first").build();
+    Built<String> second = builder.id(2).build();
+    assertEquals("first", second.label());
+    assertEquals(1, first.id());
+    assertEquals(2, second.id());
+    builder.reset();
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Missing required properties: id weight list", e.getMessage());
+    }
+    Built<String> third = builder.id(3).weight(3.0).list(list).build();
+    assertNull(third.label());
+  }
+
+  @AutoValue(builder = true)
+  abstract static class BuiltArrays {
+    abstract int[] ints();
+    @Nullable abstract long[] longs();
+    @SharedArray abstract byte[] shared();
+
+    static AutoValue_AutoValueTest_BuiltArrays_Builder builder() {
+      return new AutoValue_AutoValueTest_BuiltArrays_Builder();
+    }
+  }
+
+  public void testBuilderCopiesArrays() {
+    int[] ints = {1, 2, 3};
+    byte[] shared = {4};
+    AutoValue_AutoValueTest_BuiltArrays_Builder builder =
+        BuiltArrays.builder().ints(ints).longs(null).shared(shared);
+    BuiltArrays built = builder.build();
+    ints[0] = 23;
+    assertTrue(Arrays.equals(new int[] {1, 2, 3}, built.ints()));
+    assertNull(built.longs());
+    assertSame(shared, built.shared());
+    BuiltArrays rebuilt = builder.build();
+    assertTrue(Arrays.equals(new int[] {23, 2, 3}, rebuilt.ints()));
+    assertTrue(Arrays.equals(new int[] {1, 2, 3}, built.ints()));
+  }
+
+  @AutoValue(mutable = true, hashStrategy = AutoValue.HashStrategy.MIXED)
+  abstract static class Record {
+    abstract long id();
+    abstract float score();
+    abstract String name();
+    @Nullable abstract RetentionPolicy policy();
+    abstract int[] counts();
+  }
+
+  public void testMutable() {
+    int[] counts = {1, 2};
+    AutoValue_AutoValueTest_Record_Mutable record = new AutoValue_AutoValueTest_Record_Mutable()
+        .id(23)
+        .score(0.5f)
+        .name("first")
+        .counts(counts);
+    assertSame(counts, record.counts());
+    Record first = record.toImmutable();
+    assertEquals(new AutoValue_AutoValueTest_Record(23, 0.5f, "first", null, counts), first);
+    assertEquals(first.hashCode(), record.hashCode());
+    counts[0] = 17;
+    assertEquals(1, first.counts()[0]);
+
+    AutoValue_AutoValueTest_Record_Mutable copy =
+        new AutoValue_AutoValueTest_Record_Mutable().copyFrom(first);
+    // copyFrom copies the array, so changing it through the mutable object leaves first alone.
+    assertNotSame(
+        AutoValue_AutoValueTest_Record.countsWithoutCopy((AutoValue_AutoValueTest_Record) first),
+        copy.counts());
+    copy.counts()[0] = 17;
+    assertEquals(1, first.counts()[0]);
+    copy.counts()[0] = 1;
+    assertFalse(copy.equals(record));
+    record.counts(new int[] {1, 2});
+    assertEquals(copy, record);
+    assertEquals(copy.hashCode(), record.hashCode());
+    assertFalse(record.equals(first));
+
+    record.clear().policy(RetentionPolicy.RUNTIME);
+    assertEquals(0L, record.id());
+    assertNull(record.name());
+    assertFalse(copy.equals(record));
+    record.hashCode();
+    try {
+      record.toImmutable();
+      fail();
+    } catch (NullPointerException expected) {
+    }
+    Record second = record.id(24).score(1.5f).name("second").counts(new int[0]).toImmutable();
+    assertEquals(RetentionPolicy.RUNTIME, second.policy());
+    assertEquals(second.hashCode(), record.hashCode());
+  }
+
+  @AutoValue(binaryCodec = true)
+  abstract static class Encoded {
+    abstract boolean flag();
+    abstract byte b();
+    abstract short s();
+    abstract char c();
+    abstract int i();
+    abstract long l();
+    abstract float f();
+    abstract double d();
+    abstract String string();
+    @Nullable abstract String nullableString();
+    abstract RetentionPolicy policy();
+    abstract byte[] bytes();
+    @Nullable abstract long[] longs();
+    abstract EncodedPoint point();
+
+    static Encoded create(String string, String nullableString, byte[] bytes, long[] longs) {
+      return new AutoValue_AutoValueTest_Encoded(true, (byte) -1, (short) 300, '\u00e9', 23,
+          Long.MIN_VALUE, 1.5f, Double.NaN, string, nullableString, RetentionPolicy.CLASS, bytes,
+          longs, EncodedPoint.create(3, -4));
+    }
+  }
+
+  @AutoValue(binaryCodec = true)
+  abstract static class EncodedPoint {
+    abstract int x();
+    abstract int y();
+
+    static EncodedPoint create(int x, int y) {
+      return new AutoValue_AutoValueTest_EncodedPoint(x, y);
+    }
+  }
+
+  private static Encoded roundTrip(Encoded encoded, ByteBuffer buffer) {
+    int size = AutoValue_AutoValueTest_Encoded_BinaryCodec.encodedSize(encoded);
+    AutoValue_AutoValueTest_Encoded_BinaryCodec.encode(encoded, buffer);
+    assertEquals(size, buffer.position());
+    buffer.flip();
+    Encoded decoded = AutoValue_AutoValueTest_Encoded_BinaryCodec.decode(buffer);
+    assertEquals(size, buffer.position());
+    return decoded;
+  }
+
+  public void testBinaryCodec() {
+    Encoded full = Encoded.create("foo", "bar", new byte[] {1, 2, 3}, new long[] {4, 5});
+    assertEquals(full, roundTrip(full, ByteBuffer.allocate(200)));
+    Encoded nulls = Encoded.create("", null, new byte[0], null);
+    assertEquals(nulls, roundTrip(nulls, ByteBuffer.allocateDirect(200)));
+    assertEquals(nulls,
+        roundTrip(nulls, ByteBuffer.allocate(200).order(ByteOrder.LITTLE_ENDIAN)));
+  }
+
+  public void testBinaryCodecCorruptInput() {
+    Encoded full = Encoded.create("foo", "bar", new byte[] {1, 2, 3}, new long[] {4, 5});
+    ByteBuffer buffer =
+        ByteBuffer.allocate(AutoValue_AutoValueTest_Encoded_BinaryCodec.encodedSize(full));
+    AutoValue_AutoValueTest_Encoded_BinaryCodec.encode(full, buffer);
+    byte[] bytes = buffer.array();
+    // The primitives take 30 bytes, followed by the length of string, "foo", the null byte and
+    // length of nullableString, "bar", the ordinal of policy and the length of bytes.
+    int[][] corruptions = {
+      {30, -1}, {30, Integer.MAX_VALUE}, {51, 99}, {51, -1}, {55, 1000},
+    };
+    for (int[] corruption : corruptions) {
+      ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+      corrupt.putInt(corruption[0], corruption[1]);
+      try {
+        AutoValue_AutoValueTest_Encoded_BinaryCodec.decode(corrupt);
+        fail("Decoded " + corruption[1] + " at " + corruption[0]);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+    // Input that ends in the middle of a primitive, here the float f.
+    try {
+      AutoValue_AutoValueTest_Encoded_BinaryCodec.decode(ByteBuffer.wrap(bytes, 0, 20));
+      fail();
+    } catch (BufferUnderflowException expected) {
+    }
+  }
+
+  public void testBinaryCodecSize() {
+    EncodedPoint point = EncodedPoint.create(1, 2);
+    assertEquals(8, AutoValue_AutoValueTest_EncodedPoint_BinaryCodec.encodedSize(point));
+    Encoded encoded = Encoded.create("foo", null, new byte[] {1}, null);
+    // 1 + 1 + 2 + 2 + 4 + 8 + 4 + 8 for the primitives, 4 + 6 for "foo", 1 for the null string,
+    // 4 for the enum, 4 + 1 for the byte array, 1 for the null long array, 8 for the point.
+    assertEquals(59, AutoValue_AutoValueTest_Encoded_BinaryCodec.encodedSize(encoded));
+  }
+
+  @AutoValue(jsonAdapter = true)
+  abstract static class JsonEvent {
+    abstract boolean flag();
+    abstract char c();
+    abstract int i();
+    abstract long l();
+    abstract float f();
+    abstract String string();
+    @Nullable abstract Integer count();
+    abstract RetentionPolicy policy();
+    abstract double[] doubles();
+    @Nullable abstract JsonPoint point();
+
+    static JsonEvent create(String string, Integer count, JsonPoint point) {
+      return new AutoValue_AutoValueTest_JsonEvent(true, '\u00e9', -23, Long.MIN_VALUE, 1.5f,
+          string, count, RetentionPolicy.CLASS, new double[] {0.25, -3}, point);
+    }
+  }
+
+  @AutoValue(jsonAdapter = true)
+  abstract static class JsonPoint {
+    abstract int x();
+    abstract int y();
+
+    static JsonPoint create(int x, int y) {
+      return new AutoValue_AutoValueTest_JsonPoint(x, y);
+    }
+  }
+
+  public void testJsonAdapter() throws IOException {
+    JsonEvent event = JsonEvent.create("say \"hi\"\n", 5, JsonPoint.create(3, -4));
+    String json = AutoValue_AutoValueTest_JsonEvent_JsonAdapter.toJson(event);
+    assertEquals("{\"flag\":true,\"c\":\"\u00e9\",\"i\":-23,\"l\":-9223372036854775808,"
+        + "\"f\":1.5,\"string\":\"say \\\"hi\\\"\\n\",\"count\":5,\"policy\":\"CLASS\","
+        + "\"doubles\":[0.25,-3.0],\"point\":{\"x\":3,\"y\":-4}}", json);
+    assertEquals(event, AutoValue_AutoValueTest_JsonEvent_JsonAdapter.fromJson(json));
+
+    JsonEvent nulls = JsonEvent.create("", null, null);
+    assertEquals(nulls, AutoValue_AutoValueTest_JsonEvent_JsonAdapter.fromJson(
+        AutoValue_AutoValueTest_JsonEvent_JsonAdapter.toJson(nulls)));
+  }
+
+  public void testJsonAdapterRead() throws IOException {
+    // Members can be in any order, unknown members are skipped, and @Nullable members can be
+    // missing.
+    PushbackReader in = new PushbackReader(new StringReader(
+        " { \"y\" : 2 , \"extra\": [true, {\"a\": null}, \"\\u0041\", 1e3], \"x\": -1 }[1]"));
+    assertEquals(JsonPoint.create(-1, 2), AutoValue_AutoValueTest_JsonPoint_JsonAdapter.read(in));
+    assertEquals('[', in.read());
+    JsonEvent event = AutoValue_AutoValueTest_JsonEvent_JsonAdapter.fromJson(
+        "{\"flag\":false,\"c\":\"x\",\"i\":1,\"l\":2,\"f\":3,\"string\":\"s\",\"policy\":\"SOURCE\","
+        + "\"doubles\":[]}");
+    assertNull(event.count());
+    assertNull(event.point());
+    assertEquals(0, event.doubles().length);
+    try {
+      AutoValue_AutoValueTest_JsonEvent_JsonAdapter.fromJson(
+          "{\"flag\":false,\"c\":\"x\",\"i\":1,\"l\":2,\"f\":3,\"string\":\"s\","
+          + "\"policy\":\"NONE\",\"doubles\":[]}");
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("policy"));
+    }
+
+    String[] malformed = {
+      "{\"x\": 1}",
+      "{\"x\": 1, \"y\": 2.5}",
+      "{\"x\": 1, \"y\": 2147483648}",
+      "{\"x\": 1, \"y\": 2",
+      "{\"x\": 1, \"y\": 2} {",
+    };
+    for (String json : malformed) {
+      try {
+        AutoValue_AutoValueTest_JsonPoint_JsonAdapter.fromJson(json);
+        fail(json);
+      } catch (IOException expected) {
+      }
+    }
+
+    // Skipping an unknown member does not recurse, so any depth of nesting can be skipped, and
+    // unterminated nesting is reported as malformed input rather than overflowing the stack.
+    StringBuilder deep = new StringBuilder("{\"x\": 1, \"y\": 2, \"extra\": ");
+    for (int i = 0; i < 100000; i++) {
+      deep.append("[{\"a\":");
+    }
+    String unterminated = deep.toString();
+    deep.append("0");
+    for (int i = 0; i < 100000; i++) {
+      deep.append("}]");
+    }
+    deep.append("}");
+    assertEquals(JsonPoint.create(1, 2),
+        AutoValue_AutoValueTest_JsonPoint_JsonAdapter.fromJson(deep.toString()));
+    try {
+      AutoValue_AutoValueTest_JsonPoint_JsonAdapter.fromJson(unterminated);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @AutoValue(flyweight = true, binaryCodec = true)
+  abstract static class Sample {
+    abstract long time();
+    abstract double value();
+    abstract boolean valid();
+    abstract RetentionPolicy policy();
+    abstract char unit();
+
+    static Sample create(
+        long time, double value, boolean valid, RetentionPolicy policy, char unit) {
+      return new AutoValue_AutoValueTest_Sample(time, value, valid, policy, unit);
+    }
+  }
+
+  public void testFlyweight() {
+    List<Sample> samples = ImmutableList.of(
+        Sample.create(1, 2.5, true, RetentionPolicy.CLASS, 'm'),
+        Sample.create(2, Double.NaN, false, RetentionPolicy.SOURCE, 's'),
+        Sample.create(3, -0.0, true, RetentionPolicy.RUNTIME, 'h'));
+    // 8 + 8 + 1 + 4 + 2 bytes.
+    assertEquals(23, AutoValue_AutoValueTest_Sample_Flyweight.RECORD_SIZE);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(
+        samples.size() * AutoValue_AutoValueTest_Sample_Flyweight.RECORD_SIZE);
+    for (Sample sample : samples) {
+      AutoValue_AutoValueTest_Sample_Flyweight.append(sample, buffer);
+    }
+    assertFalse(buffer.hasRemaining());
+
+    AutoValue_AutoValueTest_Sample_Flyweight flyweight =
+        new AutoValue_AutoValueTest_Sample_Flyweight();
+    for (int i = 0; i < samples.size(); i++) {
+      Sample sample = samples.get(i);
+      flyweight.wrap(buffer, i * AutoValue_AutoValueTest_Sample_Flyweight.RECORD_SIZE);
+      assertEquals(sample.time(), flyweight.time());
+      assertEquals(sample.policy(), flyweight.policy());
+      assertTrue(sample.equals(flyweight));
+      assertTrue(flyweight.equals(sample));
+      assertEquals(sample.hashCode(), flyweight.hashCode());
+      assertEquals(sample.toString(), flyweight.toString());
+    }
+    assertFalse(flyweight.equals(samples.get(0)));
+
+    // Writing a record changes what a flyweight wrapped around it sees.
+    Sample replacement = Sample.create(4, 1.0, false, RetentionPolicy.CLASS, 'd');
+    AutoValue_AutoValueTest_Sample_Flyweight.write(replacement, buffer, 0);
+    assertEquals(replacement, new AutoValue_AutoValueTest_Sample_Flyweight(buffer, 0));
+  }
+
+  public void testFlyweightLayoutMatchesBinaryCodec() {
+    Sample sample = Sample.create(1, 2.5, true, RetentionPolicy.CLASS, 'm');
+    ByteBuffer buffer = ByteBuffer.allocate(100).order(ByteOrder.LITTLE_ENDIAN);
+    AutoValue_AutoValueTest_Sample_BinaryCodec.encode(sample, buffer);
+    assertEquals(AutoValue_AutoValueTest_Sample_Flyweight.RECORD_SIZE, buffer.position());
+    assertEquals(sample, new AutoValue_AutoValueTest_Sample_Flyweight(buffer, 0));
+  }
+
+  @AutoValue(columns = true)
+  abstract static class Trade<T> {
+    abstract long quantity();
+    abstract String symbol();
+    @Nullable abstract List<T> tags();
+    abstract int[] lots();
+
+    static <T> Trade<T> create(long quantity, String symbol, List<T> tags, int[] lots) {
+      return new AutoValue_AutoValueTest_Trade<T>(quantity, symbol, tags, lots);
+    }
+  }
+
+  public void testColumns() {
+    List<Trade<String>> trades = new ArrayList<Trade<String>>();
+    for (int i = 0; i < 100; i++) {
+      List<String> tags = (i % 2 == 0) ? null : ImmutableList.of("tag" + i);
+      trades.add(Trade.create(i, "S" + i, tags, new int[] {i}));
+    }
+    AutoValue_AutoValueTest_Trade_Columns<String> columns =
+        new AutoValue_AutoValueTest_Trade_Columns<String>(0);
+    columns.addAll(trades);
+    assertEquals(100, columns.size());
+    assertEquals(trades, columns.toList());
+    assertEquals(trades.get(37), columns.get(37));
+
+    long[] quantities = columns.quantityColumn();
+    long total = 0;
+    for (int i = 0; i < columns.size(); i++) {
+      total += quantities[i];
+    }
+    assertEquals(99 * 100 / 2, total);
+    assertEquals("S5", columns.symbolColumn()[5]);
+
+    try {
+      columns.get(100);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+
+    columns.clear();
+    assertEquals(0, columns.size());
+    assertNull(columns.symbolColumn()[5]);
+    assertEquals(
+        trades.subList(0, 3),
+        AutoValue_AutoValueTest_Trade_Columns.copyOf(trades.subList(0, 3)).toList());
+  }
+
+  @AutoValue(toLongMap = true)
+  abstract static class Cell {
+    abstract int x();
+    abstract double y();
+    @Nullable abstract String label();
+
+    static Cell create(int x, double y, String label) {
+      return new AutoValue_AutoValueTest_Cell(x, y, label);
+    }
+  }
+
+  public void testToLongMap() {
+    AutoValue_AutoValueTest_Cell_ToLongMap map = new AutoValue_AutoValueTest_Cell_ToLongMap();
+    Map<Cell, Long> expected = new HashMap<Cell, Long>();
+    for (int i = 0; i < 1000; i++) {
+      int x = i % 37;
+      double y = (i % 11) * 0.5;
+      String label = (i % 3 == 0) ? null : "L" + (i % 5);
+      Cell cell = Cell.create(x, y, label);
+      Long old = expected.get(cell);
+      expected.put(cell, (old == null) ? i : old + i);
+      assertEquals((long) expected.get(cell), map.addTo(x, y, label, i));
+    }
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected, map.toMap());
+
+    int removed = 0;
+    for (Cell cell : expected.keySet()) {
+      if (cell.x() % 2 == 0) {
+        assertTrue(map.remove(cell));
+        removed++;
+      }
+    }
+    assertEquals(expected.size() - removed, map.size());
+    for (Map.Entry<Cell, Long> entry : expected.entrySet()) {
+      Cell cell = entry.getKey();
+      if (cell.x() % 2 == 0) {
+        assertFalse(map.containsKey(cell));
+        assertEquals(-1L, map.get(cell, -1L));
+      } else {
+        assertEquals((long) entry.getValue(), map.get(cell.x(), cell.y(), cell.label(), -1L));
+      }
+    }
+
+    map.put(100, -0.0, null, 5L);
+    assertFalse(map.containsKey(100, 0.0, null));
+    assertEquals(5L, map.get(Cell.create(100, -0.0, null), 0L));
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(100, -0.0, null));
+  }
+
+  @AutoValue(toLongMap = true, hashStrategy = AutoValue.HashStrategy.MIXED)
+  abstract static class MixedCell {
+    abstract int x();
+    @Nullable abstract String label();
+  }
+
+  @AutoValue(toLongMap = true, hashStrategy = AutoValue.HashStrategy.SEEDED)
+  abstract static class SeededCell {
+    abstract int x();
+    @Nullable abstract String label();
+  }
+
+  public void testToLongMapHashStrategy() throws Exception {
+    // The map hashes the columns of a key in the same way as hashCode(), including the seed and
+    // the final mixing.
+    Method mixedHash = AutoValue_AutoValueTest_MixedCell_ToLongMap.class
+        .getDeclaredMethod("hash", int.class, String.class);
+    Method seededHash = AutoValue_AutoValueTest_SeededCell_ToLongMap.class
+        .getDeclaredMethod("hash", int.class, String.class);
+    mixedHash.setAccessible(true);
+    seededHash.setAccessible(true);
+    for (int x = 0; x < 10; x++) {
+      String label = (x % 3 == 0) ? null : "L" + x;
+      assertEquals(new AutoValue_AutoValueTest_MixedCell(x, label).hashCode(),
+          mixedHash.invoke(null, x, label));
+      assertEquals(new AutoValue_AutoValueTest_SeededCell(x, label).hashCode(),
+          seededHash.invoke(null, x, label));
+    }
+  }
+
+  @AutoValue(lookupMethods = true)
+  abstract static class LookupKey {
+    abstract int id();
+    abstract double weight();
+    @Nullable abstract String name();
+    abstract int[] path();
+
+    static LookupKey create(int id, double weight, String name, int[] path) {
+      return new AutoValue_AutoValueTest_LookupKey(id, weight, name, path);
+    }
+  }
+
+  public void testLookupMethods() {
+    int[] path = {1, 2};
+    LookupKey key = LookupKey.create(23, 1.5, "foo", path.clone());
+    assertEquals(key.hashCode(), AutoValue_AutoValueTest_LookupKey.hashOf(23, 1.5, "foo", path));
+    assertTrue(AutoValue_AutoValueTest_LookupKey.matches(key, 23, 1.5, "foo", path));
+    assertFalse(AutoValue_AutoValueTest_LookupKey.matches(key, 23, 1.5, null, path));
+    assertFalse(AutoValue_AutoValueTest_LookupKey.matches(key, 23, -1.5, "foo", path));
+    assertFalse(AutoValue_AutoValueTest_LookupKey.matches(key, 23, 1.5, "foo", new int[] {1}));
+
+    // Another implementation of LookupKey is read through its getters.
+    LookupKey other = new LookupKey() {
+      @Override int id() {
+        return 23;
+      }
+
+      @Override double weight() {
+        return 1.5;
+      }
+
+      @Override String name() {
+        return "foo";
+      }
+
+      @Override int[] path() {
+        return new int[] {1, 2};
+      }
+    };
+    assertTrue(AutoValue_AutoValueTest_LookupKey.matches(other, 23, 1.5, "foo", path));
+    assertFalse(AutoValue_AutoValueTest_LookupKey.matches(other, 23, 1.5, "foo", new int[0]));
+
+    int[] empty = {};
+    LookupKey nullName = LookupKey.create(-1, -0.0, null, empty);
+    assertEquals(
+        nullName.hashCode(), AutoValue_AutoValueTest_LookupKey.hashOf(-1, -0.0, null, empty));
+    assertTrue(AutoValue_AutoValueTest_LookupKey.matches(nullName, -1, -0.0, null, empty));
+    assertFalse(AutoValue_AutoValueTest_LookupKey.matches(nullName, -1, 0.0, null, empty));
+  }
+
+
   @AutoValue
   static abstract class Version implements Comparable<Version> {
     abstract int major();
@@ -843,6 +2123,169 @@ public class AutoValueTest extends TestCase {
     }
   }
 
+  @AutoValue(compareBy = {"major", "-minor", "label", "id", "parts"})
+  abstract static class Release implements Comparable<Release> {
+    abstract int major();
+    abstract int minor();
+    @Nullable abstract String label();
+    @Unsigned abstract long id();
+    abstract int[] parts();
+
+    static Release create(int major, int minor, String label, long id, int... parts) {
+      return new AutoValue_AutoValueTest_Release(major, minor, label, id, parts);
+    }
+  }
+
+  public void testCompareBy() {
+    List<Release> releases = ImmutableList.of(
+        Release.create(-1, 0, null, 0),
+        Release.create(1, 5, null, 0),
+        Release.create(1, 2, null, 0),
+        Release.create(1, 2, "alpha", 0),
+        Release.create(1, 2, "beta", 0),
+        Release.create(1, 2, "beta", 1),
+        Release.create(1, 2, "beta", Long.MAX_VALUE),
+        Release.create(1, 2, "beta", -1, 1),
+        Release.create(1, 2, "beta", -1, 1, 0),
+        Release.create(1, 2, "beta", -1, 2));
+    for (int i = 0; i < releases.size(); i++) {
+      for (int j = 0; j < releases.size(); j++) {
+        Release a = releases.get(i);
+        Release b = releases.get(j);
+        int expected = Integer.signum(i - j);
+        assertEquals(a + " vs " + b, expected, Integer.signum(a.compareTo(b)));
+        assertEquals(
+            expected, Integer.signum(AutoValue_AutoValueTest_Release.COMPARATOR.compare(a, b)));
+      }
+    }
+    List<Release> sorted = new ArrayList<Release>(releases);
+    Collections.reverse(sorted);
+    Collections.sort(sorted);
+    assertEquals(releases, sorted);
+  }
+
+  @AutoValue(withers = true)
+  abstract static class MachineState {
+    abstract int step();
+    abstract double load();
+    @Nullable abstract String label();
+    abstract long[] counters();
+
+    abstract MachineState withStep(int step);
+
+    MachineState withLabel(String label) {
+      return create(step(), load(), label.toUpperCase(), counters());
+    }
+
+    static MachineState create(int step, double load, String label, long[] counters) {
+      return new AutoValue_AutoValueTest_MachineState(step, load, label, counters);
+    }
+  }
+
+  public void testWithers() throws Exception {
+    long[] counters = {1, 2, 3};
+    MachineState state = MachineState.create(1, 0.0, "idle", counters);
+    MachineState next = state.withStep(2);
+    assertEquals(MachineState.create(2, 0.0, "idle", counters), next);
+    assertSame(state, state.withStep(1));
+
+    AutoValue_AutoValueTest_MachineState generated = (AutoValue_AutoValueTest_MachineState) state;
+    assertSame(state, generated.withLoad(0.0));
+    assertNotSame(state, generated.withLoad(-0.0));
+    assertEquals("BUSY", state.withLabel("busy").label());
+
+    // The new object shares the array rather than copying it.
+    Field countersField = AutoValue_AutoValueTest_MachineState.class.getDeclaredField("counters");
+    countersField.setAccessible(true);
+    assertSame(counters, countersField.get(next));
+    long[] moreCounters = {4};
+    assertSame(moreCounters, countersField.get(generated.withCounters(moreCounters)));
+  }
+
+  @AutoValue(immutableCollections = true)
+  abstract static class Route {
+    abstract List<String> stops();
+    @Nullable abstract Map<String, Integer> times();
+
+    static Route create(List<String> stops, Map<String, Integer> times) {
+      return new AutoValue_AutoValueTest_Route(stops, times);
+    }
+  }
+
+  public void testImmutableCollections() {
+    List<String> stops = new ArrayList<String>(Arrays.asList("a", "b"));
+    Route route = Route.create(stops, null);
+    stops.add("c");
+    assertEquals(ImmutableList.of("a", "b"), route.stops());
+    assertTrue(route.stops() instanceof ImmutableList);
+    assertNull(route.times());
+    try {
+      route.stops().add("d");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+
+    // A collection that is already immutable is not copied again.
+    Route next = Route.create(route.stops(), ImmutableMap.of("a", 1));
+    assertSame(route.stops(), next.stops());
+    assertEquals(route.stops(), next.stops());
+  }
+
+  @AutoValue(fingerprint = true)
+  abstract static class ShardKey {
+    enum Region { EU, US }
+
+    abstract String tenant();
+    abstract Region region();
+    abstract long id();
+    abstract int[] path();
+    @Nullable abstract Double weight();
+
+    abstract long fingerprint64();
+    abstract long[] fingerprint128();
+
+    static ShardKey create(String tenant, Region region, long id, int[] path, Double weight) {
+      return new AutoValue_AutoValueTest_ShardKey(tenant, region, id, path, weight);
+    }
+  }
+
+  @AutoValue(fingerprint = true)
+  abstract static class Shard {
+    abstract ShardKey key();
+    abstract int replica();
+
+    abstract long fingerprint64();
+
+    static Shard create(ShardKey key, int replica) {
+      return new AutoValue_AutoValueTest_Shard(key, replica);
+    }
+  }
+
+  public void testFingerprint() {
+    ShardKey key = ShardKey.create("acme", ShardKey.Region.US, 42, new int[] {1, 2, 3}, null);
+    // Fingerprints are persisted and compared across JVMs, so they must never change.
+    assertEquals(0x16e01b40ce11ca93L, key.fingerprint64());
+    assertTrue(Arrays.equals(
+        new long[] {0x16e01b40ce11ca93L, 0xdc33112ea48f21c8L}, key.fingerprint128()));
+    assertEquals(0x738b76152b7ab229L, Shard.create(key, 2).fingerprint64());
+
+    ShardKey same = ShardKey.create("acme", ShardKey.Region.US, 42, new int[] {1, 2, 3}, null);
+    assertEquals(key.fingerprint64(), same.fingerprint64());
+    List<ShardKey> others = ImmutableList.of(
+        ShardKey.create("acmf", ShardKey.Region.US, 42, new int[] {1, 2, 3}, null),
+        ShardKey.create("acme", ShardKey.Region.EU, 42, new int[] {1, 2, 3}, null),
+        ShardKey.create("acme", ShardKey.Region.US, 43, new int[] {1, 2, 3}, null),
+        ShardKey.create("acme", ShardKey.Region.US, 42, new int[] {1, 2}, null),
+        ShardKey.create("acme", ShardKey.Region.US, 42, new int[] {1, 2, 3}, 0.0));
+    Set<Long> fingerprints = new HashSet<Long>();
+    fingerprints.add(key.fingerprint64());
+    for (ShardKey other : others) {
+      assertTrue(other.toString(), fingerprints.add(other.fingerprint64()));
+      assertEquals(other.fingerprint64(), other.fingerprint128()[0]);
+    }
+    assertFalse(Shard.create(key, 2).fingerprint64() == Shard.create(key, 3).fingerprint64());
+  }
+
   static abstract class LukesBase {
     interface LukesVisitor<T> {
       T visit(LukesSub s);
@@ -43,4 +43,408 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.SOURCE)
 @Target(ElementType.TYPE)
 public @interface AutoValue {
+  /**
+   * If true, the generated {@code hashCode()} computes its result once and remembers it in a
+   * transient field, in the same way as {@link String#hashCode()}. The generated {@code equals}
+   * can then return false immediately when both objects have already computed different hash
+   * codes. This is worthwhile when instances are used as keys in large hash-based collections
+   * and their hash codes are expensive to compute, for example because they have array or
+   * collection properties. It has no effect if the class defines its own {@code hashCode()}.
+   */
+  boolean cacheHashCode() default false;
+
+  /**
+   * How the generated {@code hashCode()} method combines the hash codes of the properties. See
+   * {@link HashStrategy}.
+   */
+  HashStrategy hashStrategy() default HashStrategy.STANDARD;
+
+  /** The ways in which the generated {@code hashCode()} method can compute its result. */
+  enum HashStrategy {
+    /**
+     * The hash codes of the properties are combined with multiplications by a constant and
+     * exclusive ors. This is fast, but when the properties are small integers or booleans, the
+     * results tend to cluster, and collide often in hash tables.
+     */
+    STANDARD,
+
+    /**
+     * The result of {@link #STANDARD} is passed through the finalization step of MurmurHash3, a
+     * few shifts and multiplications that make every bit of the result depend on every bit of the
+     * input, so hash codes are well distributed even when property values are not.
+     */
+    MIXED,
+
+    /**
+     * Like {@link #MIXED}, except that the computation starts from a seed that is chosen at
+     * random when the generated class is initialized. This makes it harder for someone who
+     * controls the property values to choose values whose hash codes collide. Hash codes then
+     * differ from one run of the program to the next, so they must not be persisted.
+     */
+    SEEDED,
+  }
+
+  /**
+   * If true, the generated class has a static method {@code intern} that returns a canonical
+   * instance equal to its argument. Equal values constructed through this method are then
+   * represented by a single object, which saves memory when many equal instances are retained and
+   * makes comparing them with {@code equals} a cheap identity check. For example: <pre>
+   *
+   *   &#64;AutoValue(intern = true)
+   *   abstract class Tag {
+   *     static Tag create(String key, String value) {
+   *       return AutoValue_Tag.intern(new AutoValue_Tag(key, value));
+   *     }
+   *
+   *     abstract String key();
+   *     abstract String value();
+   *   }</pre>
+   *
+   * <p>By default, canonical instances are only weakly referenced, so they can be garbage-collected
+   * when nothing else refers to them. See {@link #internMaximumSize()} for an alternative.
+   *
+   * <p>{@code intern} is thread-safe. The canonical instances are held in 16 maps, each with its
+   * own lock, and the map for an argument is chosen by its hash code, so concurrent calls with
+   * different values usually take different locks. With a positive {@link #internMaximumSize()}
+   * there is only one map, so every call to {@code intern} for the class takes the same lock.
+   */
+  boolean intern() default false;
+
+  /**
+   * The maximum number of canonical instances retained when {@link #intern()} is true. If this is
+   * 0, which is the default, canonical instances are weakly referenced and there is no limit. If
+   * it is positive, canonical instances are strongly referenced and the least recently used one is
+   * discarded when the limit is exceeded, after which equal values may temporarily be represented
+   * by more than one object. Interning is then serialized on a single lock for the class, as
+   * described for {@link #intern()}.
+   */
+  int internMaximumSize() default 0;
+
+  /**
+   * The maximum number of elements that the generated {@code toString()} shows for each array,
+   * {@link java.util.Collection} or {@link java.util.Map} property. If this is 0, which is the
+   * default, every element is shown. If it is positive, only the first elements up to the limit are
+   * shown, followed by a count of the others, for example {@code [1, 2, 3, ...(997 more)]}, so that
+   * logging a value with a very large property does not build a correspondingly large string. The
+   * elements are read directly, without reflection. See also {@link Redacted}.
+   */
+  int toStringElementLimit() default 0;
+
+  /**
+   * If true, the generated class has static methods {@code hashOf} and {@code matches} that take
+   * the values of the properties as parameters, in the order they are declared. {@code hashOf}
+   * returns the value that {@code hashCode()} would return for an instance with those properties,
+   * and {@code matches(foo, ...)} returns true if {@code foo} is equal to such an instance. A hash
+   * table keyed by the annotated class can use them to look up an entry without first creating a
+   * key: <pre>
+   *
+   *   int h = AutoValue_Point.hashOf(x, y);
+   *   for (Point p : buckets[h & mask]) {
+   *     if (AutoValue_Point.matches(p, x, y)) {
+   *       return p;
+   *     }
+   *   }</pre>
+   *
+   * <p>A method is only generated if the corresponding {@code hashCode()} or {@code equals(Object)}
+   * method is generated, rather than being defined in the annotated class.
+   */
+  boolean lookupMethods() default false;
+
+  /**
+   * If true, a builder class is generated alongside the implementation class. If the annotated
+   * class is {@code Foo} then the builder is {@code AutoValue_Foo_Builder}, and it has a method to
+   * set each property, a {@code build()} method, and a {@code reset()} method. For example: <pre>
+   *
+   *   &#64;AutoValue(builder = true)
+   *   abstract class Point {
+   *     static AutoValue_Point_Builder builder() {
+   *       return new AutoValue_Point_Builder();
+   *     }
+   *
+   *     abstract int x();
+   *     abstract int y();
+   *   }
+   *
+   *   Point origin = Point.builder().x(0).y(0).build();</pre>
+   *
+   * <p>Every property must be set before {@code build()} is called, except {@code @Nullable}
+   * properties, which default to null. The builder holds primitive properties in primitive fields,
+   * and after {@code reset()} the same builder can be used to build another value, so a loop that
+   * builds many values need not allocate anything but the values themselves. The exception is array
+   * properties, which {@code build()} copies unless they are {@link SharedArray}, so that changing
+   * an array after passing it to the builder does not change values already built. Builders are
+   * not thread-safe.
+   */
+  boolean builder() default false;
+
+  /**
+   * If true, a mutable companion class is generated, for code that fills in and discards many
+   * values and would rather reuse a few objects than allocate one per value. If the annotated class
+   * is {@code Foo} then the generated class is {@code AutoValue_Foo_Mutable}, with a getter and a
+   * setter for each property, plus these methods: <pre>
+   *
+   *   AutoValue_Foo_Mutable clear()
+   *   AutoValue_Foo_Mutable copyFrom(Foo value)
+   *   Foo toImmutable()</pre>
+   *
+   * <p>The setters have the same names as the properties, like those of a {@link #builder()}, and
+   * like {@code clear()} and {@code copyFrom} they return the mutable object itself. The getters
+   * have the same names as the getters of {@code Foo}. Primitive properties are held in primitive
+   * fields, and array properties are held without copying, though {@code copyFrom} and
+   * {@code toImmutable()} copy arrays that are not annotated {@link SharedArray}, so that an
+   * immutable value never shares such an array with a mutable object. {@code toImmutable()}
+   * constructs an {@code AutoValue_Foo} with the current property values, so the usual null checks
+   * apply.
+   *
+   * <p>If AutoValue generates {@code equals} and {@code hashCode} for {@code Foo}, then it also
+   * generates them for the mutable class: two mutable objects are equal if their properties are
+   * equal, and {@code hashCode()} is the same as that of {@code toImmutable()}, so a mutable object
+   * can be used to look up a precomputed hash or compared cheaply before deciding to materialize
+   * it. A mutable object is never equal to an instance of {@code Foo}, and should not be changed
+   * while it is in a hash-based collection. Mutable objects are not thread-safe.
+   */
+  boolean mutable() default false;
+
+  /**
+   * If true, a class is generated that converts instances to and from a compact binary form in a
+   * {@link java.nio.ByteBuffer}. If the annotated class is {@code Foo} then the generated class is
+   * {@code AutoValue_Foo_BinaryCodec}, with these static methods: <pre>
+   *
+   *   public static void encode(Foo value, ByteBuffer buffer)
+   *   public static Foo decode(ByteBuffer buffer)
+   *   public static int encodedSize(Foo value)</pre>
+   *
+   * <p>Properties are written in order without any field names or type information. Primitive
+   * values are written with their natural width in the byte order of the buffer; strings and
+   * primitive arrays are written as an {@code int} length followed by their {@code char} or
+   * element values; enums are written as their {@code int} ordinal; and a property whose type is
+   * another {@code @AutoValue} class with {@code binaryCodec = true} is written by that class's
+   * codec. A {@code @Nullable} property is preceded by a byte that is 0 if it is null. Other
+   * property types are not supported. The encoded form is only meant to be read by the same
+   * version of the class, since it changes whenever the properties change. If the input ends
+   * early, {@code decode} throws {@link java.nio.BufferUnderflowException}. If a string or array
+   * length is negative or larger than the rest of the buffer could hold, or an enum ordinal is out
+   * of range, it throws {@link IllegalArgumentException}, before allocating anything for that
+   * property.
+   *
+   * <p>The codec reads array properties of an {@code AutoValue_Foo} without copying them, through
+   * a static accessor that the generated subclass defines for the purpose; the fields themselves
+   * stay private.
+   */
+  boolean binaryCodec() default false;
+
+  /**
+   * If true, a class is generated that writes instances as JSON objects and reads them back,
+   * without reflection. If the annotated class is {@code Foo} then the generated class is
+   * {@code AutoValue_Foo_JsonAdapter}, with these static methods: <pre>
+   *
+   *   public static void write(Foo value, Appendable out) throws IOException
+   *   public static String toJson(Foo value)
+   *   public static Foo read(PushbackReader in) throws IOException
+   *   public static Foo fromJson(String json) throws IOException</pre>
+   *
+   * <p>Each property is a member of the object, named after the property. Primitive values are
+   * written as JSON numbers or booleans, without boxing; {@code char} values, strings and enum
+   * names are written as JSON strings; primitive arrays are written as JSON arrays; and a property
+   * whose type is another {@code @AutoValue} class with {@code jsonAdapter = true} is written by
+   * that class's adapter. Boxed primitives are written like primitives, and a null
+   * {@code @Nullable} property is written as {@code null}. Other property types are not
+   * supported. Floating-point values that JSON cannot represent, namely NaN and the infinities,
+   * cause an {@code IllegalArgumentException}.
+   *
+   * <p>Reading accepts the members in any order and ignores members that are not properties. A
+   * property that is not {@code @Nullable} must be present, and the value is constructed by the
+   * constructor of the generated class, so its usual checks apply. Malformed input, including an
+   * enum name that is not a constant of the enum, causes an {@code IOException}.
+   *
+   * <p>Like the {@link #binaryCodec()}, the adapter writes array properties of an
+   * {@code AutoValue_Foo} without copying them.
+   */
+  boolean jsonAdapter() default false;
+
+  /**
+   * If true, instances of the generated class are serialized through a serialization proxy that
+   * writes the values of the properties directly, instead of through default serialization. The
+   * serialized form is smaller, since it does not contain the names and types of the fields, and
+   * faster to write and read, since no reflection is needed to access the fields. The annotated
+   * class must implement {@link java.io.Serializable} and must not define {@code writeReplace()}
+   * or {@code readResolve()}.
+   *
+   * <p>Deserializing the proxy calls the constructor of the generated class, so the usual checks
+   * that non-{@code @Nullable} properties are not null apply. A stream written with a different
+   * list of properties cannot be read, and streams written by default serialization, before this
+   * option was enabled, cannot be read either.
+   */
+  boolean serializationProxy() default false;
+
+  /**
+   * If true, the generated class stores the values of its {@code boolean}, {@code byte},
+   * {@code short}, and {@code char} properties, and of its enum properties that are not
+   * {@code @Nullable}, in the bits of as few {@code long} or {@code int} fields as possible, rather
+   * than in a field each. The getters, {@code equals}, and {@code hashCode} extract the values from
+   * those fields. This reduces the size of each instance when a class has many such properties,
+   * which matters when very many instances are retained. It has no effect unless there are at least
+   * two properties that can be packed.
+   *
+   * <p>An enum property occupies just enough bits for the ordinals of the constants that the enum
+   * has when the {@code @AutoValue} class is compiled, so the class must be recompiled if constants
+   * are added to the enum. Until it is, the constructor throws {@link IllegalArgumentException} for
+   * a constant whose ordinal does not fit in those bits.
+   */
+  boolean packFields() default false;
+
+  /**
+   * If true, a flyweight class is generated that reads the properties of fixed-size records in a
+   * {@link java.nio.ByteBuffer}, which can be a heap buffer, a direct buffer, or a memory-mapped
+   * file. This is only allowed if every property is a primitive or an enum, and none is
+   * {@code @Nullable}. If the annotated class is {@code Foo} then the flyweight is
+   * {@code AutoValue_Foo_Flyweight}, another subclass of {@code Foo}. For example: <pre>
+   *
+   *   ByteBuffer buffer = ByteBuffer.allocateDirect(n * AutoValue_Point_Flyweight.RECORD_SIZE);
+   *   for (Point point : points) {
+   *     AutoValue_Point_Flyweight.append(point, buffer);
+   *   }
+   *
+   *   AutoValue_Point_Flyweight flyweight = new AutoValue_Point_Flyweight();
+   *   for (int i = 0; i < n; i++) {
+   *     flyweight.wrap(buffer, i * AutoValue_Point_Flyweight.RECORD_SIZE);
+   *     ...
+   *   }</pre>
+   *
+   * <p>Each record contains the properties in order, with their natural widths in the byte order
+   * of the buffer, except that a {@code boolean} is a byte that is 0 or 1 and an enum is its
+   * {@code int} ordinal. This is the same as the encoding used by {@link #binaryCodec()}.
+   *
+   * <p>The flyweight's {@code equals}, {@code hashCode}, and {@code toString} give the same results
+   * as those of {@code AutoValue_Foo} with the same property values, so the two can be used
+   * interchangeably. However, a flyweight is not immutable: its properties change when it is
+   * wrapped around another record, or when its record changes. It should not be used as a key in
+   * a hash-based collection, and code that retains a value should copy it into an instance of
+   * {@code AutoValue_Foo}. Flyweights are not thread-safe.
+   */
+  boolean flyweight() default false;
+
+  /**
+   * If true, a collection class is generated that stores the values of each property in an array
+   * of its own, rather than storing a reference to each instance. If the annotated class is
+   * {@code Foo} then the collection is {@code AutoValue_Foo_Columns}. It has methods to
+   * {@code add} values, to {@code get} the value at an index, which creates a new instance of
+   * {@code AutoValue_Foo}, and to convert from and to a {@code List<Foo>}. For each property
+   * {@code bar} it also has a method {@code barColumn()} that returns the array holding that
+   * property. Primitive properties are held in primitive arrays, so a loop that reads one
+   * property of every value reads consecutive elements of one array: <pre>
+   *
+   *   AutoValue_Trade_Columns trades = AutoValue_Trade_Columns.copyOf(tradeList);
+   *   long[] quantities = trades.quantityColumn();
+   *   long total = 0;
+   *   for (int i = 0; i < trades.size(); i++) {
+   *     total += quantities[i];
+   *   }</pre>
+   *
+   * <p>The collection is not thread-safe.
+   */
+  boolean columns() default false;
+
+  /**
+   * If true, a hash map class is generated whose keys are instances of the annotated class and
+   * whose values are {@code long}s. If the annotated class is {@code Foo} then the map is
+   * {@code AutoValue_Foo_ToLongMap}. Instead of a reference to each key, the map stores the
+   * properties of the keys in arrays, one per property, and its {@code get}, {@code put},
+   * {@code addTo}, {@code containsKey} and {@code remove} methods can take the properties of a key
+   * as separate parameters, so counting occurrences of a key does not create any objects:<pre>
+   *
+   *   AutoValue_Point_ToLongMap counts = new AutoValue_Point_ToLongMap();
+   *   for (int i = 0; i < xs.length; i++) {
+   *     counts.addTo(xs[i], ys[i], 1);
+   *   }
+   *   long originCount = counts.get(0, 0, 0L);</pre>
+   *
+   * <p>Keys are hashed and compared in the same way as by the generated {@code hashCode} and
+   * {@code equals} methods, including any {@link #hashStrategy}. Array properties are not
+   * supported. The map is not thread-safe.
+   */
+  boolean toLongMap() default false;
+
+  /**
+   * If true, the generated class has a method {@code withFoo(value)} for each property
+   * {@code foo}, which returns an object with the given value for {@code foo} and the same values
+   * as this object for every other property. The new object shares its other fields with this
+   * one, so array properties are not copied, and if the given value is the same as the current
+   * one, this object itself is returned. Primitive values are compared with {@code ==}, or by
+   * their bits if they are floating-point, and other values are compared by identity.
+   *
+   * <p>The annotated class can make a wither part of its API by declaring it as an abstract
+   * method that returns the annotated class: <pre>
+   *
+   *   &#64;AutoValue(withers = true)
+   *   abstract class State {
+   *     abstract int step();
+   *     abstract long[] counters();
+   *
+   *     abstract State withStep(int step);
+   *   }</pre>
+   *
+   * <p>A wither that the annotated class implements itself is not generated.
+   */
+  boolean withers() default false;
+
+  /**
+   * If true, the generated constructor stores each property of type {@code List}, {@code Set} or
+   * {@code Map} as a Guava {@code ImmutableList}, {@code ImmutableSet} or {@code ImmutableMap},
+   * using its {@code copyOf} method. That method returns its argument unchanged if it is already an
+   * immutable collection of the right kind, so a collection that is passed from one value to
+   * another is only copied once. The getter returns the immutable collection, which can safely be
+   * shared. Guava must be available when the annotated class is compiled, and the collections
+   * cannot contain {@code null}.
+   */
+  boolean immutableCollections() default false;
+
+  /**
+   * If true, the generated class has methods {@code long fingerprint64()} and
+   * {@code long[] fingerprint128()} that hash the values of the properties to 64 or 128 bits.
+   * Unlike {@code hashCode()}, the result only depends on the property values, so it is the same
+   * in every JVM and every run of the program, and it can be used to partition or deduplicate
+   * values that are spread across machines. The first element of the result of
+   * {@code fingerprint128()} is the result of {@code fingerprint64()}.
+   *
+   * <p>Each property is fed to the hash as a sequence of 64-bit words: a primitive or boxed
+   * primitive as its value, with {@code float} and {@code double} values as the bits returned by
+   * {@code Float.floatToIntBits} and {@code Double.doubleToLongBits}; a string as its length
+   * followed by its chars, four to a word; an enum as the string of its name, so reordering the
+   * constants does not change fingerprints; a primitive array as its length followed by its
+   * elements; and a value of a type that has a {@code long[] fingerprint128()} method, such as
+   * another {@code @AutoValue} class with this option, as the two words of its fingerprint. A
+   * {@code @Nullable} property is preceded by a word that is 0 if it is null and 1 otherwise.
+   * Other property types are an error. The words are combined with the block operation and
+   * finalization step of MurmurHash3_x64_128.
+   *
+   * <p>The annotated class can make the methods part of its API by declaring them as abstract
+   * methods. Fingerprints do not depend on the name of the class, so two classes with the same
+   * property types can have equal fingerprints for different values.
+   */
+  boolean fingerprint() default false;
+
+  /**
+   * The names of the properties that define an order on instances of the annotated class, most
+   * significant first. A name can be preceded by {@code -} to reverse the order of that property.
+   * If any names are given, the generated class has a static {@code COMPARATOR} field, a
+   * {@link java.util.Comparator} that compares the listed properties in turn, and if the annotated
+   * class implements {@code Comparable} without defining {@code compareTo}, the generated class
+   * implements it with the same order: <pre>
+   *
+   *   &#64;AutoValue(compareBy = {"symbol", "-price"})
+   *   abstract class Quote implements Comparable&lt;Quote&gt; {
+   *     abstract String symbol();
+   *     abstract double price();
+   *   }</pre>
+   *
+   * <p>Each listed property must be a primitive, a primitive array, or a {@code Comparable} type
+   * that does not depend on the type parameters of the class. Primitives are compared without
+   * boxing, in the order of {@code Float.compare} and {@code Double.compare} for floating-point
+   * values and with {@code false} before {@code true}. Arrays are compared lexicographically, with
+   * a shorter array before any longer one that it is a prefix of. A {@code null} value of a
+   * {@code @Nullable} property comes before any other value, or after it if the order is
+   * reversed. See {@link Unsigned} for comparing integers as unsigned values.
+   */
+  String[] compareBy() default {};
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.auto.value;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation on a property of an {@link AutoValue} class indicating that the generated
+ * {@code equals} and {@code hashCode} methods should ignore it. For example: <pre>
+ *
+ *   &#64;AutoValue
+ *   abstract class Symbol {
+ *     abstract String name();
+ *     &#64;ExcludeFromEquals abstract int sourceOffset();
+ *   }</pre>
+ *
+ * <p>This is meant for properties that are derived from the others, such as a precomputed index,
+ * or that are purely informational, such as a position in a source file or a debugging string.
+ * Leaving them out makes {@code equals} and {@code hashCode} cheaper. The property is still stored,
+ * returned by its getter, and handled like any other property by everything else that AutoValue
+ * generates, such as builders and codecs.
+ *
+ * <p>Two values that differ only in excluded properties are equal, so code that uses them as keys
+ * or interns them may get either one back. That is only correct if the excluded properties really
+ * do not matter to whoever compares the values. To keep everything consistent with
+ * {@code equals}, excluded properties are also left out of the hash codes of the flyweight and
+ * mutable classes, the lookup methods, the keys of {@code toLongMap} maps, and fingerprints. They
+ * are not left out of a {@code compareBy} order, which is then inconsistent with {@code equals} if
+ * it names one of them. An excluded property is never stored in a packed field, since packed
+ * fields are compared as a whole.
+ *
+ * <p>The annotation has no effect if the class defines its own {@code equals} and
+ * {@code hashCode}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.SOURCE)
+public @interface ExcludeFromEquals {
+  /**
+   * Whether the generated {@code toString()} should still show the property. If false, it is left
+   * out of {@code toString()} too.
+   */
+  boolean includeInToString() default true;
+}
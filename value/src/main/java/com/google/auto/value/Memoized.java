@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.auto.value;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation that causes the result of a method in an {@link AutoValue} class to be computed only
+ * once. The annotated method must be a concrete, non-private, non-static, non-final method with no
+ * parameters and a non-void return type, declared in the {@code @AutoValue} class itself. For
+ * example: <pre>
+ *
+ *   &#64;AutoValue
+ *   abstract class Path {
+ *     abstract String text();
+ *
+ *     &#64;Memoized
+ *     ImmutableList&lt;String&gt; segments() {
+ *       return ImmutableList.copyOf(Splitter.on('/').split(text()));
+ *     }
+ *   }</pre>
+ *
+ * <p>The generated subclass overrides the method with one that calls the original implementation
+ * the first time it is invoked and returns the same result on every later invocation. The result is
+ * computed at most once per instance even if several threads call the method concurrently.
+ *
+ * <p>If the method is annotated {@code @Nullable} then a null result is remembered like any other.
+ * Otherwise the generated method throws {@code NullPointerException} if the original
+ * implementation returns null.
+ *
+ * <p>Memoized results are not part of the value: they are not included in the generated
+ * {@code equals}, {@code hashCode}, or {@code toString}, and they are held in transient fields so
+ * they are recomputed after deserialization.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.SOURCE)
+public @interface Memoized {
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.auto.value;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation on a property of an {@link AutoValue} class indicating that the generated
+ * {@code toString()} should not show its value. For example: <pre>
+ *
+ *   &#64;AutoValue
+ *   abstract class Credentials {
+ *     abstract String user();
+ *     &#64;Redacted abstract String password();
+ *   }</pre>
+ *
+ * <p>Here {@code toString()} returns something like
+ * {@code Credentials{user=alice, password=<redacted>}}, so the password does not end up in logs
+ * by accident. The property is still part of {@code equals}, {@code hashCode}, and any other code
+ * that AutoValue generates, such as a {@linkplain AutoValue#binaryCodec() binary codec}. The
+ * annotation has no effect if the class defines its own {@code toString()}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.SOURCE)
+public @interface Redacted {
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.auto.value;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation on a primitive array property of an {@link AutoValue} class indicating that the
+ * generated getter should return the array itself rather than a copy of it. For example: <pre>
+ *
+ *   &#64;AutoValue
+ *   abstract class Message {
+ *     &#64;SharedArray abstract byte[] payload();
+ *
+ *     ByteBuffer payloadView() {
+ *       return ByteBuffer.wrap(payload()).asReadOnlyBuffer();
+ *     }
+ *   }</pre>
+ *
+ * <p>By default, the getter for an array property returns a new copy of the array each time it is
+ * called, so that callers cannot modify the state of the immutable object. With this annotation
+ * no copy is made, which avoids allocating and copying large arrays on every access, but the
+ * object is then only immutable if nobody modifies the array. As shown above, a read-only view
+ * such as a {@link java.nio.ByteBuffer#asReadOnlyBuffer() read-only ByteBuffer} can be returned
+ * to callers that should not be trusted with the array itself.
+ *
+ * <p>The generated constructor never copies arrays, with or without this annotation.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.SOURCE)
+public @interface SharedArray {
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.auto.value;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation on a {@code byte}, {@code short}, {@code int} or {@code long} property of an
+ * {@link AutoValue} class, or an array of one of those types, indicating that the order defined
+ * by {@link AutoValue#compareBy()} should treat its values as unsigned. For example: <pre>
+ *
+ *   &#64;AutoValue(compareBy = {"id"})
+ *   abstract class Entry implements Comparable&lt;Entry&gt; {
+ *     &#64;Unsigned abstract long id();
+ *   }</pre>
+ *
+ * <p>Here an entry whose id is {@code -1L}, which is {@code 0xffffffffffffffffL}, is greater than
+ * every other entry. The annotation has no other effect: in particular {@code toString()} still
+ * shows signed values.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.SOURCE)
+public @interface Unsigned {
+}
@@ -17,30 +17,54 @@ package com.google.auto.value.processor;
 
 import com.google.auto.service.AutoService;
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.ExcludeFromEquals;
+import com.google.auto.value.Memoized;
+import com.google.auto.value.Redacted;
+import com.google.auto.value.SharedArray;
+import com.google.auto.value.Unsigned;
+import com.google.common.base.CaseFormat;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 
 import java.beans.Introspector;
+import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.io.Writer;
 import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
 
 import javax.annotation.Generated;
 import javax.annotation.processing.AbstractProcessor;
@@ -57,6 +81,8 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
@@ -145,7 +171,7 @@ public class AutoValueProcessor extends AbstractProcessor {
     }
   }
 
-  private String generatedClassName(TypeElement type, String prefix) {
+  static String generatedClassName(TypeElement type, String prefix) {
     String name = type.getSimpleName().toString();
     while (type.getEnclosingElement() instanceof TypeElement) {
       type = (TypeElement) type.getEnclosingElement();
@@ -183,264 +209,2066 @@ public class AutoValueProcessor extends AbstractProcessor {
     private final String identifier;
     private final ExecutableElement method;
     private final String type;
+    private final String appendToClass;
     private final ImmutableList<String> annotations;
+    private String packedWord = "";
+    private boolean packedInInt;
+    private int packedShift;
+    private String packedEnumValues = "";
+    private String immutableCopy = "";
+    private String toStringHelper = "";
+    private String arrayAccessor = "";
 
     Property(
         String name,
         String identifier,
         ExecutableElement method,
         String type,
+        String appendToClass,
         TypeSimplifier typeSimplifier) {
       this.name = name;
       this.identifier = identifier;
       this.method = method;
       this.type = type;
-      this.annotations = buildAnnotations(typeSimplifier);
+      this.appendToClass = appendToClass;
+      this.annotations = annotationStrings(method, typeSimplifier);
     }
 
-    private ImmutableList<String> buildAnnotations(TypeSimplifier typeSimplifier) {
-      ImmutableList.Builder<String> builder = ImmutableList.builder();
+    /**
+     * Returns the name of the property as it should be used when declaring identifiers (fields and
+     * parameters). If the original getter method was {@code foo()} then this will be {@code foo}.
+     * If it was {@code getFoo()} then it will be {@code foo}. If it was {@code getPackage()} then
+     * it will be something like {@code package0}, since {@code package} is a reserved word.
+     */
+    @Override
+    public String toString() {
+      return identifier;
+    }
+
+    /**
+     * Returns the name of the property as it should be used in strings visible to users. This is
+     * usually the same as {@code toString()}, except that if we had to use an identifier like
+     * "package0" because "package" is a reserved word, the name here will be the original
+     * "package".
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the name of the getter method for this property as defined by the {@code @AutoValue}
+     * class. For property {@code foo}, this will be {@code foo} or {@code getFoo} or {@code isFoo}.
+     */
+    public String getGetter() {
+      return method.getSimpleName().toString();
+    }
+
+    ExecutableElement getMethod() {
+      return method;
+    }
+
+    TypeElement getOwner() {
+      return (TypeElement) method.getEnclosingElement();
+    }
+
+    TypeMirror getTypeMirror() {
+      return method.getReturnType();
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public TypeKind getKind() {
+      return method.getReturnType().getKind();
+    }
+
+    /**
+     * Returns true if the type of this property is an enum, meaning that its values can be
+     * compared by identity.
+     */
+    public boolean isEnum() {
+      TypeMirror returnType = method.getReturnType();
+      return returnType.getKind() == TypeKind.DECLARED
+          && ((DeclaredType) returnType).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    /**
+     * Returns the simple name of the generated subclass of this property's type, if the property's
+     * type is an {@code @AutoValue} class whose generated subclass has an
+     * {@code appendTo(StringBuilder)} method that we can call; otherwise returns an empty string.
+     */
+    public String getAppendToClass() {
+      return appendToClass;
+    }
+
+    /** Returns true if the generated {@code equals} and {@code hashCode} ignore this property. */
+    public boolean isExcludedFromEquals() {
+      return method.getAnnotation(ExcludeFromEquals.class) != null;
+    }
+
+    /** Returns true if the generated {@code toString()} leaves this property out altogether. */
+    public boolean isExcludedFromToString() {
+      ExcludeFromEquals exclude = method.getAnnotation(ExcludeFromEquals.class);
+      return exclude != null && !exclude.includeInToString();
+    }
+
+    /** Returns true if {@code toString()} should show a placeholder instead of the value. */
+    public boolean isRedacted() {
+      return method.getAnnotation(Redacted.class) != null;
+    }
+
+    /**
+     * Records that {@code toString()} appends the value of this property by calling the given
+     * static method, which shows a limited number of elements.
+     */
+    void boundWith(String helper) {
+      this.toStringHelper = helper;
+    }
+
+    /**
+     * Returns the name of the static method that {@code toString()} calls to append the value of
+     * this property, or an empty string if the value is appended in the usual way.
+     */
+    public String getToStringHelper() {
+      return toStringHelper;
+    }
+
+    public List<String> getAnnotations() {
+      return annotations;
+    }
+
+    public boolean isNullable() {
+      return hasNullableAnnotation(method);
+    }
+
+    /**
+     * Returns the suffix of the {@code ObjectOutput} and {@code ObjectInput} methods used to write
+     * and read this property in the serialization proxy: the capitalized primitive type, such as
+     * "Int", or "Object".
+     */
+    public String getSerializedType() {
+      if (getKind().isPrimitive()) {
+        return Character.toUpperCase(type.charAt(0)) + type.substring(1);
+      } else {
+        return "Object";
+      }
+    }
+
+    /**
+     * Returns true if this is an array property whose getter should return the array itself
+     * rather than a copy.
+     */
+    public boolean isSharedArray() {
+      return method.getAnnotation(SharedArray.class) != null;
+    }
+
+    /**
+     * Returns true if this is an array property whose getter returns a copy of the array, because
+     * it is not {@code @SharedArray}.
+     */
+    boolean isCopiedArray() {
+      return getKind() == TypeKind.ARRAY && !isSharedArray();
+    }
+
+    /**
+     * Records that the generated subclass has a static method with the given name that returns
+     * the array of this property without copying it, for the generated companion classes.
+     */
+    void defineArrayAccessor(String name) {
+      this.arrayAccessor = name;
+    }
+
+    /**
+     * Returns the name of the static method that returns the array of this property without
+     * copying it, or an empty string if there is none.
+     */
+    public String getArrayAccessor() {
+      return arrayAccessor;
+    }
+
+    /**
+     * Returns an expression for the value of this property in {@code instance}, an expression
+     * whose type is the {@code @AutoValue} class. The getter of an array property returns a copy
+     * of the array unless the property is {@code @SharedArray}, so if the instance is one of the
+     * generated subclass, the expression reads the field instead.
+     */
+    public String readWithoutCopy(String instance, String subclass, String wildcardTypes) {
+      String getter = instance + "." + getGetter() + "()";
+      if (!isCopiedArray()) {
+        return getter;
+      }
+      return "((" + instance + " instanceof " + subclass + ") ? ((" + subclass + wildcardTypes
+          + ") " + instance + ")." + identifier + " : " + getter + ")";
+    }
+
+    /**
+     * Like {@link #readWithoutCopy}, but for a companion class, which cannot read the private
+     * field, and instead calls the {@linkplain #getArrayAccessor() array accessor} if there is one.
+     */
+    String readFromCompanion(String instance, String subclass, String wildcardTypes) {
+      String getter = instance + "." + getGetter() + "()";
+      if (arrayAccessor.isEmpty()) {
+        return getter;
+      }
+      return "((" + instance + " instanceof " + subclass + ") ? " + subclass + "." + arrayAccessor
+          + "((" + subclass + wildcardTypes + ") " + instance + ") : " + getter + ")";
+    }
+
+    public String getAccess() {
+      return accessModifier(method);
+    }
+
+    /**
+     * Records that the value of this property is stored in some of the bits of a packed field
+     * instead of a field of its own.
+     *
+     * @param word the name of the packed field
+     * @param inInt true if the packed field is an {@code int}, false if it is a {@code long}
+     * @param shift the position of the lowest bit of this property in the packed field
+     * @param enumValues if this is an enum property, the name of the static field that holds the
+     *     values of the enum, indexed by ordinal; otherwise an empty string
+     */
+    void pack(String word, boolean inInt, int shift, String enumValues) {
+      this.packedWord = word;
+      this.packedInInt = inInt;
+      this.packedShift = shift;
+      this.packedEnumValues = enumValues;
+    }
+
+    /**
+     * Records that the constructor stores an immutable copy of the value of this property, made by
+     * the {@code copyOf} method of the given class, such as {@code ImmutableList}.
+     */
+    void copyWith(String immutableClass) {
+      this.immutableCopy = immutableClass;
+    }
+
+    /**
+     * Returns the class whose {@code copyOf} method makes the immutable copy of this property that
+     * the constructor stores, or an empty string if the constructor stores the value itself.
+     */
+    public String getImmutableCopy() {
+      return immutableCopy;
+    }
+
+    /** Returns true if the value of this property is stored in a packed field. */
+    public boolean isPacked() {
+      return !packedWord.isEmpty();
+    }
+
+    /**
+     * Returns the name of the static field that holds the values of this packed enum property,
+     * or an empty string if this is not a packed enum property.
+     */
+    public String getEnumValues() {
+      return packedEnumValues;
+    }
+
+    /**
+     * Returns the largest ordinal that fits in the bits of this packed enum property. The enum may
+     * have gained constants since this class was compiled, so the constructor checks that the
+     * ordinal of its parameter is no larger, rather than letting it spill into the bits of the
+     * neighbouring properties.
+     */
+    public int getMaxOrdinal() {
+      return (int) enumMask();
+    }
+
+    /**
+     * Returns an expression that reads the value of this property in the generated class, in code
+     * where the field of the property is not hidden by a local variable. For an ordinary property
+     * {@code foo} this is just {@code foo}.
+     */
+    public String getValue() {
+      return isPacked() ? getRead() : identifier;
+    }
+
+    /**
+     * Returns an expression that reads the value of this property in the generated class. This is
+     * the same as {@code readFrom("this")}.
+     */
+    public String getRead() {
+      return readFrom("this");
+    }
+
+    /**
+     * Returns an expression that reads the value of this property in the given instance of the
+     * generated class. For an ordinary property {@code foo} this is just {@code instance.foo}, but
+     * a packed property must be extracted from the bits of its packed field.
+     */
+    public String readFrom(String instance) {
+      if (!isPacked()) {
+        return instance + "." + identifier;
+      }
+      String word = instance + "." + packedWord;
+      String shifted = (packedShift == 0) ? word : "(" + word + " >>> " + packedShift + ")";
+      String suffix = packedInInt ? "" : "L";
+      switch (getKind()) {
+        case BOOLEAN:
+          return "((" + word + " & 0x" + Long.toHexString(1L << packedShift) + suffix + ") != 0)";
+        case BYTE:
+        case SHORT:
+        case CHAR:
+          return "((" + type + ") " + shifted + ")";
+        default:
+          String mask = "0x" + Long.toHexString(enumMask()) + suffix;
+          String index = "(" + shifted + " & " + mask + ")";
+          return packedEnumValues + "[" + (packedInInt ? index : "(int) " + index) + "]";
+      }
+    }
+
+    /**
+     * Returns the expression that the constructor of the generated class uses to put the value of
+     * this packed property, which is in the constructor parameter of the same name, into its bits
+     * of the packed field. The bits of all the properties in the field are combined with {@code |}.
+     */
+    String packedTerm() {
+      String suffix = packedInInt ? "" : "L";
+      String value;
+      switch (getKind()) {
+        case BOOLEAN:
+          return "(" + identifier + " ? 0x" + Long.toHexString(1L << packedShift) + suffix
+              + " : 0" + suffix + ")";
+        case BYTE:
+          value = "(" + identifier + " & 0xff" + suffix + ")";
+          break;
+        case SHORT:
+        case CHAR:
+          value = "(" + identifier + " & 0xffff" + suffix + ")";
+          break;
+        default:
+          value = (packedInInt ? "" : "(long) ") + identifier + ".ordinal()";
+          break;
+      }
+      return (packedShift == 0) ? value : "(" + value + " << " + packedShift + ")";
+    }
+
+    /**
+     * Returns the number of bits needed to store this property in a packed field, or 0 if it
+     * cannot be packed. Enum properties can only be packed if they are not {@code @Nullable}, and
+     * they need enough bits for the largest ordinal of the enum as it is at compile time.
+     */
+    int packedBits() {
+      switch (getKind()) {
+        case BOOLEAN:
+          return 1;
+        case BYTE:
+          return 8;
+        case SHORT:
+        case CHAR:
+          return 16;
+        default:
+          if (!isEnum() || isNullable()) {
+            return 0;
+          }
+          int constants = enumConstantCount();
+          if (constants == 0) {
+            return 0;
+          }
+          return Math.max(1, 32 - Integer.numberOfLeadingZeros(constants - 1));
+      }
+    }
+
+    private long enumMask() {
+      return (1L << packedBits()) - 1;
+    }
+
+    private int enumConstantCount() {
+      Element enumType = ((DeclaredType) method.getReturnType()).asElement();
+      int count = 0;
+      for (Element element : enumType.getEnclosedElements()) {
+        if (element.getKind() == ElementKind.ENUM_CONSTANT) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  /**
+   * A field of the generated class that holds the values of several packed properties, as
+   * requested by {@code @AutoValue(packFields = true)}. An instance of this class is made
+   * available to the Velocity template engine for each such field, in the same way as for
+   * {@link Property}.
+   */
+  public static class PackedWord {
+    private final String name;
+    private final boolean isInt;
+    private final ImmutableList<String> terms;
+
+    PackedWord(String name, boolean isInt, List<Property> props) {
+      this.name = name;
+      this.isInt = isInt;
+      ImmutableList.Builder<String> termsBuilder = ImmutableList.builder();
+      for (Property prop : props) {
+        termsBuilder.add(prop.packedTerm());
+      }
+      this.terms = termsBuilder.build();
+    }
+
+    /** Returns the name of the field. */
+    @Override
+    public String toString() {
+      return name;
+    }
+
+    /** Returns the type of the field, {@code int} or {@code long}. */
+    public String getType() {
+      return isInt ? "int" : "long";
+    }
+
+    /**
+     * Returns the expressions that compute the bits of each property in the field. The value of
+     * the field is the {@code |} of these expressions.
+     */
+    public List<String> getTerms() {
+      return terms;
+    }
+  }
+
+  /**
+   * A method of an {@code @AutoValue} class that is annotated {@code @Memoized}. An instance of
+   * this class is made available to the Velocity template engine for each such method, in the same
+   * way as for {@link Property}.
+   */
+  public static class MemoizedMethod {
+    private final ExecutableElement method;
+    private final String type;
+    private final String field;
+    private final String flag;
+    private final ImmutableList<String> annotations;
+
+    MemoizedMethod(
+        ExecutableElement method,
+        String type,
+        String field,
+        String flag,
+        TypeSimplifier typeSimplifier) {
+      this.method = method;
+      this.type = type;
+      this.field = field;
+      this.flag = flag;
+      this.annotations = annotationStrings(method, typeSimplifier);
+    }
+
+    /** Returns the name of the memoized method. */
+    @Override
+    public String toString() {
+      return method.getSimpleName().toString();
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public TypeKind getKind() {
+      return method.getReturnType().getKind();
+    }
+
+    /** Returns the name of the field that holds the result of the method once it is computed. */
+    public String getField() {
+      return field;
+    }
+
+    /** Returns the name of the volatile boolean field that says whether the result is computed. */
+    public String getFlag() {
+      return flag;
+    }
+
+    public List<String> getAnnotations() {
+      return annotations;
+    }
+
+    public boolean isNullable() {
+      return hasNullableAnnotation(method);
+    }
+
+    public String getAccess() {
+      return accessModifier(method);
+    }
+  }
+
+  /**
+   * A property named in {@code @AutoValue(compareBy = ...)}, with the direction in which it is
+   * compared. An instance of this class is made available to the Velocity template engine for each
+   * such property, in the order of {@code compareBy}.
+   */
+  public static class ComparedProperty {
+    private final Property property;
+    private final boolean descending;
+    private final boolean unsigned;
+    private final String subclass;
+    private final String wildcardTypes;
+
+    ComparedProperty(
+        Property property,
+        boolean descending,
+        boolean unsigned,
+        String subclass,
+        String wildcardTypes) {
+      this.property = property;
+      this.descending = descending;
+      this.unsigned = unsigned;
+      this.subclass = subclass;
+      this.wildcardTypes = wildcardTypes;
+    }
+
+    @Override
+    public String toString() {
+      return property.toString();
+    }
+
+    public TypeKind getKind() {
+      return property.getKind();
+    }
+
+    public boolean isNullable() {
+      return property.isNullable();
+    }
+
+    public boolean isDescending() {
+      return descending;
+    }
+
+    /**
+     * Returns an expression for the value of this property in the given instance of the
+     * {@code @AutoValue} class, which does not copy an array value.
+     */
+    public String read(String instance) {
+      return property.readWithoutCopy(instance, subclass, wildcardTypes);
+    }
+
+    public String getGetter() {
+      return property.getGetter();
+    }
+
+    public String getType() {
+      return property.getType();
+    }
+
+    /**
+     * Returns the given expression for a value of this property, converted so that the signed
+     * order of the converted values is the order of this property. This only changes unsigned
+     * integers, as described for {@link AutoValueProcessor#ordered}.
+     */
+    public String ordered(String value) {
+      return AutoValueProcessor.ordered(getKind(), unsigned, value);
+    }
+
+    /**
+     * Returns the name of the static method of the generated class that compares two values of
+     * this array property, for example {@code compareUnsignedIntArrays}.
+     */
+    public String getArrayComparison() {
+      return arrayComparisonName(elementKind(), unsigned);
+    }
+
+    private TypeKind elementKind() {
+      return ((ArrayType) property.getTypeMirror()).getComponentType().getKind();
+    }
+
+    /**
+     * Returns the {@link ArrayComparison} that compares values of this property, or null if it is
+     * not an array.
+     */
+    ArrayComparison arrayComparison() {
+      return getKind() == TypeKind.ARRAY ? new ArrayComparison(elementKind(), unsigned) : null;
+    }
+  }
+
+  /**
+   * A static method of the generated class that lexicographically compares two primitive arrays,
+   * for use by the {@code compareBy} order. There is one such method for each combination of
+   * element type and signedness that the order needs.
+   */
+  public static class ArrayComparison {
+    private final TypeKind elementKind;
+    private final boolean unsigned;
+
+    ArrayComparison(TypeKind elementKind, boolean unsigned) {
+      this.elementKind = elementKind;
+      this.unsigned = unsigned;
+    }
+
+    @Override
+    public String toString() {
+      return arrayComparisonName(elementKind, unsigned);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof ArrayComparison) {
+        ArrayComparison that = (ArrayComparison) o;
+        return elementKind == that.elementKind && unsigned == that.unsigned;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return elementKind.hashCode() * 2 + (unsigned ? 1 : 0);
+    }
+
+    public TypeKind getElementKind() {
+      return elementKind;
+    }
+
+    public String getElementType() {
+      return elementKind.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the given array element, converted as described for
+     * {@link AutoValueProcessor#ordered}.
+     */
+    public String ordered(String element) {
+      return AutoValueProcessor.ordered(elementKind, unsigned, element);
+    }
+  }
+
+  private static String arrayComparisonName(TypeKind elementKind, boolean unsigned) {
+    String kind = elementKind.name();
+    return "compare" + (unsigned ? "Unsigned" : "")
+        + kind.charAt(0) + kind.substring(1).toLowerCase(Locale.ENGLISH) + "Arrays";
+  }
+
+  /**
+   * Returns the given expression of the given primitive kind, converted if it is unsigned so that
+   * the signed order of the converted values is the unsigned order of the original ones. Bytes and
+   * shorts are masked to their unsigned value, and ints and longs have their sign bit flipped by
+   * adding {@code MIN_VALUE}.
+   */
+  private static String ordered(TypeKind kind, boolean unsigned, String value) {
+    if (!unsigned) {
+      return value;
+    }
+    switch (kind) {
+      case BYTE:
+        return "(" + value + " & 0xff)";
+      case SHORT:
+        return "(" + value + " & 0xffff)";
+      case INT:
+        return "(" + value + " + Integer.MIN_VALUE)";
+      case LONG:
+        return "(" + value + " + Long.MIN_VALUE)";
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * A {@code withFoo} method of the generated class, which returns a copy of the object with a
+   * different value for property {@code foo}. An instance of this class is made available to the
+   * Velocity template engine for each such method.
+   */
+  public static class Wither {
+    private final Property property;
+    private final String name;
+    private final String access;
+    private final boolean override;
+
+    Wither(Property property, String name, String access, boolean override) {
+      this.property = property;
+      this.name = name;
+      this.access = access;
+      this.override = override;
+    }
+
+    /** Returns the name of the method, for example {@code withFoo}. */
+    @Override
+    public String toString() {
+      return name;
+    }
+
+    public Property getProperty() {
+      return property;
+    }
+
+    public String getAccess() {
+      return access;
+    }
+
+    /** Returns true if the method implements an abstract method of the {@code @AutoValue} class. */
+    public boolean isOverride() {
+      return override;
+    }
+  }
+
+  /** How the value of a property is turned into the 64-bit words that are fed to a fingerprint. */
+  enum FingerprintForm {
+    /** A primitive or boxed primitive value, as a single word. */
+    WORD,
+    /** The length of a string followed by its chars, four to a word. */
+    STRING,
+    /** The name of an enum constant, as a string. */
+    ENUM,
+    /** The length of a primitive array followed by its elements, one to a word. */
+    ARRAY,
+    /** The two words returned by the {@code fingerprint128()} method of the value. */
+    NESTED,
+  }
+
+  /**
+   * A property as it is fed to the hash that computes {@code fingerprint64()} and
+   * {@code fingerprint128()}. An instance of this class is made available to the Velocity template
+   * engine for each property of an {@code @AutoValue(fingerprint = true)} class.
+   */
+  public static class FingerprintedProperty {
+    private final Property property;
+    private final FingerprintForm form;
+    private final TypeKind kind;
+    private final boolean boxed;
+
+    /**
+     * Creates a property with the given form. For {@link FingerprintForm#WORD}, {@code kind} is the
+     * primitive kind of the value, after unboxing if {@code boxed} is true. For
+     * {@link FingerprintForm#ARRAY}, it is the kind of the elements.
+     */
+    FingerprintedProperty(Property property, FingerprintForm form, TypeKind kind, boolean boxed) {
+      this.property = property;
+      this.form = form;
+      this.kind = kind;
+      this.boxed = boxed;
+    }
+
+    @Override
+    public String toString() {
+      return property.toString();
+    }
+
+    public Property getProperty() {
+      return property;
+    }
+
+    public String getForm() {
+      return form.name();
+    }
+
+    /** Returns the helper method that feeds an array property to the fingerprint. */
+    public FingerprintArray getArray() {
+      return new FingerprintArray(kind);
+    }
+
+    /** Returns the word for the given value of a {@link FingerprintForm#WORD} property. */
+    public String word(String value) {
+      String primitive =
+          boxed ? value + "." + kind.name().toLowerCase(Locale.ENGLISH) + "Value()" : value;
+      return fingerprintWord(kind, primitive);
+    }
+  }
+
+  /**
+   * A static method of the generated class that appends a primitive array to the result of
+   * {@code toString()}, showing at most {@code toStringElementLimit} elements. There is one such
+   * method for each element type that the array properties need.
+   */
+  public static class BoundedArray {
+    private final TypeKind elementKind;
+
+    BoundedArray(TypeKind elementKind) {
+      this.elementKind = elementKind;
+    }
+
+    @Override
+    public String toString() {
+      String kind = elementKind.name();
+      return "append" + kind.charAt(0) + kind.substring(1).toLowerCase(Locale.ENGLISH) + "Array";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof BoundedArray && elementKind == ((BoundedArray) o).elementKind;
+    }
+
+    @Override
+    public int hashCode() {
+      return elementKind.hashCode();
+    }
+
+    public String getElementType() {
+      return elementKind.name().toLowerCase(Locale.ENGLISH);
+    }
+  }
+
+  /**
+   * A static method of the generated class that feeds a primitive array to the fingerprint. There
+   * is one such method for each element type that the array properties need.
+   */
+  public static class FingerprintArray {
+    private final TypeKind elementKind;
+
+    FingerprintArray(TypeKind elementKind) {
+      this.elementKind = elementKind;
+    }
+
+    @Override
+    public String toString() {
+      String kind = elementKind.name();
+      return "fingerprint" + kind.charAt(0) + kind.substring(1).toLowerCase(Locale.ENGLISH)
+          + "Array";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof FingerprintArray && elementKind == ((FingerprintArray) o).elementKind;
+    }
+
+    @Override
+    public int hashCode() {
+      return elementKind.hashCode();
+    }
+
+    public String getElementType() {
+      return elementKind.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /** Returns the word for the given array element. */
+    public String word(String element) {
+      return fingerprintWord(elementKind, element);
+    }
+  }
+
+  /**
+   * Returns the given expression of the given primitive kind as it is fed to a fingerprint.
+   * Integers are widened to {@code long}, booleans are 1 or 0, and floating-point values are
+   * converted to their bits, with every NaN converted to the same bits.
+   */
+  private static String fingerprintWord(TypeKind kind, String value) {
+    switch (kind) {
+      case BOOLEAN:
+        return "(" + value + " ? 1L : 0L)";
+      case FLOAT:
+        return "Float.floatToIntBits(" + value + ")";
+      case DOUBLE:
+        return "Double.doubleToLongBits(" + value + ")";
+      default:
+        return value;
+    }
+  }
+
+  // Returns the source form of the annotations on the given method that should be copied to the
+  // method that implements it in the generated subclass.
+  private static ImmutableList<String> annotationStrings(
+      ExecutableElement method, TypeSimplifier typeSimplifier) {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+
+    for (AnnotationMirror annotationMirror : method.getAnnotationMirrors()) {
+      TypeElement annotationElement =
+          (TypeElement) annotationMirror.getAnnotationType().asElement();
+      String annotationClassName = annotationElement.getQualifiedName().toString();
+      if (annotationClassName.equals(Override.class.getName())
+          || annotationClassName.equals(ExcludeFromEquals.class.getName())
+          || annotationClassName.equals(Memoized.class.getName())
+          || annotationClassName.equals(Redacted.class.getName())
+          || annotationClassName.equals(SharedArray.class.getName())
+          || annotationClassName.equals(Unsigned.class.getName())) {
+        // Don't copy @Override if present, since we will be adding our own @Override in the
+        // implementation. Don't copy @ExcludeFromEquals, @Memoized, @Redacted, @SharedArray or
+        // @Unsigned, since they would be meaningless there.
+        continue;
+      }
+      String annotationName = typeSimplifier.simplify(annotationMirror.getAnnotationType());
+      String annotation = "@" + annotationName;
+      List<String> values = Lists.newArrayList();
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+          annotationMirror.getElementValues().entrySet()) {
+        values.add(entry.getKey().getSimpleName() + "=" + entry.getValue());
+      }
+
+      if (!values.isEmpty()) {
+        annotation += "(" + Joiner.on(", ").join(values) + ")";
+      }
+
+      builder.add(annotation);
+    }
+
+    return builder.build();
+  }
+
+  private static boolean hasNullableAnnotation(ExecutableElement method) {
+    for (AnnotationMirror annotationMirror : method.getAnnotationMirrors()) {
+      String name = annotationMirror.getAnnotationType().asElement().getSimpleName().toString();
+      if (name.equals("Nullable")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String accessModifier(ExecutableElement method) {
+    Set<Modifier> mods = method.getModifiers();
+    if (mods.contains(Modifier.PUBLIC)) {
+      return "public ";
+    } else if (mods.contains(Modifier.PROTECTED)) {
+      return "protected ";
+    } else {
+      return "";
+    }
+  }
+
+  private static boolean isJavaLangObject(TypeElement type) {
+    return type.getSuperclass().getKind() == TypeKind.NONE && type.getKind() == ElementKind.CLASS;
+  }
+
+  private enum ObjectMethodToOverride {
+    NONE, TO_STRING, EQUALS, HASH_CODE
+  }
+
+  private static ObjectMethodToOverride objectMethodToOverride(ExecutableElement method) {
+    String name = method.getSimpleName().toString();
+    switch (method.getParameters().size()) {
+      case 0:
+        if (name.equals("toString")) {
+          return ObjectMethodToOverride.TO_STRING;
+        } else if (name.equals("hashCode")) {
+          return ObjectMethodToOverride.HASH_CODE;
+        }
+        break;
+      case 1:
+        if (name.equals("equals")
+            && method.getParameters().get(0).asType().toString().equals("java.lang.Object")) {
+          return ObjectMethodToOverride.EQUALS;
+        }
+        break;
+    }
+    return ObjectMethodToOverride.NONE;
+  }
+
+  private void findLocalAndInheritedMethods(TypeElement type, List<ExecutableElement> methods) {
+    note("Looking at methods in " + type);
+    Types typeUtils = processingEnv.getTypeUtils();
+    Elements elementUtils = processingEnv.getElementUtils();
+    for (TypeMirror superInterface : type.getInterfaces()) {
+      findLocalAndInheritedMethods((TypeElement) typeUtils.asElement(superInterface), methods);
+    }
+    if (type.getSuperclass().getKind() != TypeKind.NONE) {
+      // Visit the superclass after superinterfaces so we will always see the implementation of a
+      // method after any interfaces that declared it.
+      findLocalAndInheritedMethods(
+          (TypeElement) typeUtils.asElement(type.getSuperclass()), methods);
+    }
+    // Add each method of this class, and in so doing remove any inherited method it overrides.
+    // This algorithm is quadratic in the number of methods but it's hard to see how to improve
+    // that while still using Elements.overrides.
+    List<ExecutableElement> theseMethods = ElementFilter.methodsIn(type.getEnclosedElements());
+    for (ExecutableElement method : theseMethods) {
+      if (!method.getModifiers().contains(Modifier.PRIVATE)) {
+        boolean alreadySeen = false;
+        for (Iterator<ExecutableElement> methodIter = methods.iterator(); methodIter.hasNext();) {
+          ExecutableElement otherMethod = methodIter.next();
+          if (elementUtils.overrides(method, otherMethod, type)) {
+            methodIter.remove();
+          } else if (method.getSimpleName().equals(otherMethod.getSimpleName())
+              && method.getParameters().equals(otherMethod.getParameters())) {
+            // If we inherit this method on more than one path, we don't want to add it twice.
+            alreadySeen = true;
+          }
+        }
+        if (!alreadySeen) {
+          methods.add(method);
+        }
+      }
+    }
+  }
+
+  private void processType(TypeElement type) {
+    AutoValue autoValue = type.getAnnotation(AutoValue.class);
+    if (autoValue == null) {
+      // This shouldn't happen unless the compilation environment is buggy,
+      // but it has happened in the past and can crash the compiler.
+      abortWithError("annotation processor for @AutoValue was invoked with a type that "
+          + "does not have that annotation; this is probably a compiler bug", type);
+    }
+    if (type.getKind() != ElementKind.CLASS) {
+      abortWithError("@" + AutoValue.class.getName() + " only applies to classes", type);
+    }
+    if (ancestorIsAutoValue(type)) {
+      abortWithError("One @AutoValue class may not extend another", type);
+    }
+    if (implementsAnnotation(type)) {
+      abortWithError("@AutoValue may not be used to implement an annotation interface; "
+          + "try using @AutoAnnotation instead", type);
+    }
+    AutoValueTemplateVars vars = new AutoValueTemplateVars();
+    vars.pkg = TypeSimplifier.packageNameOf(type);
+    vars.origClass = classNameOf(type);
+    vars.simpleClassName = TypeSimplifier.simpleNameOf(vars.origClass);
+    vars.subclass = TypeSimplifier.simpleNameOf(generatedSubclassName(type));
+    defineVarsForType(type, vars);
+    String text = vars.toText();
+    text = Reformatter.fixup(text);
+    writeSourceFile(generatedSubclassName(type), text, type);
+    GwtSerialization gwtSerialization = new GwtSerialization(processingEnv, type);
+    gwtSerialization.maybeWriteGwtSerializer(vars);
+    BuilderGeneration builderGeneration = new BuilderGeneration(processingEnv, type);
+    builderGeneration.maybeWriteBuilder(vars);
+    MutableGeneration mutableGeneration = new MutableGeneration(processingEnv, type);
+    mutableGeneration.maybeWriteMutable(vars);
+    BinaryCodecGeneration binaryCodecGeneration = new BinaryCodecGeneration(processingEnv, type);
+    binaryCodecGeneration.maybeWriteBinaryCodec(vars);
+    JsonAdapterGeneration jsonAdapterGeneration = new JsonAdapterGeneration(processingEnv, type);
+    jsonAdapterGeneration.maybeWriteJsonAdapter(vars);
+    FlyweightGeneration flyweightGeneration = new FlyweightGeneration(processingEnv, type);
+    flyweightGeneration.maybeWriteFlyweight(vars);
+    ColumnsGeneration columnsGeneration = new ColumnsGeneration(processingEnv, type);
+    columnsGeneration.maybeWriteColumns(vars);
+    ToLongMapGeneration toLongMapGeneration = new ToLongMapGeneration(processingEnv, type);
+    toLongMapGeneration.maybeWriteToLongMap(vars);
+  }
+
+  private void defineVarsForType(TypeElement type, AutoValueTemplateVars vars) {
+    Types typeUtils = processingEnv.getTypeUtils();
+    AutoValue autoValue = type.getAnnotation(AutoValue.class);
+    List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+    findLocalAndInheritedMethods(type, methods);
+    determineObjectMethodsToGenerate(methods, vars);
+    defineAppendToVars(methods, vars);
+    boolean compareBy = autoValue.compareBy().length > 0;
+    ImmutableList<ExecutableElement> toImplement =
+        methodsToImplement(methods, compareBy, autoValue.withers(), autoValue.fingerprint());
+    ImmutableList<ExecutableElement> toMemoize = methodsToMemoize(type);
+    Set<TypeMirror> types = new TypeMirrorSet();
+    types.addAll(returnTypesOf(toImplement));
+    types.addAll(returnTypesOf(toMemoize));
+    TypeMirror javaxAnnotationGenerated = getTypeMirror(Generated.class);
+    types.add(javaxAnnotationGenerated);
+    TypeMirror javaUtilArrays = getTypeMirror(Arrays.class);
+    if (containsArrayType(types)) {
+      // If there are array properties then we will be referencing java.util.Arrays.
+      // Arrange to import it unless that would introduce ambiguity.
+      types.add(javaUtilArrays);
+    }
+    TypeMirror javaUtilMap = typeUtils.erasure(getTypeMirror(Map.class));
+    TypeMirror javaUtilLinkedHashMap = typeUtils.erasure(getTypeMirror(LinkedHashMap.class));
+    TypeMirror javaUtilWeakHashMap = typeUtils.erasure(getTypeMirror(WeakHashMap.class));
+    TypeMirror javaLangRefWeakReference = typeUtils.erasure(getTypeMirror(WeakReference.class));
+    if (autoValue.intern()) {
+      // The interning code references these types. Arrange to import them unless that would
+      // introduce ambiguity.
+      types.add(javaUtilMap);
+      if (autoValue.internMaximumSize() > 0) {
+        types.add(javaUtilLinkedHashMap);
+      } else {
+        types.add(javaUtilWeakHashMap);
+        types.add(javaLangRefWeakReference);
+      }
+    }
+    TypeMirror javaUtilCollection = typeUtils.erasure(getTypeMirror(Collection.class));
+    if (autoValue.toStringElementLimit() > 0) {
+      // The bounded toString() helpers reference these types if there are collection or map
+      // properties. Arrange to import them unless that would introduce ambiguity.
+      for (TypeMirror collectionType : ImmutableList.of(javaUtilCollection, javaUtilMap)) {
+        if (containsSubtype(returnTypesOf(toImplement), collectionType)) {
+          types.add(collectionType);
+        }
+      }
+    }
+    List<TypeMirror> serializationProxyTypes = new ArrayList<TypeMirror>();
+    for (Class<?> c : SERIALIZATION_PROXY_CLASSES) {
+      serializationProxyTypes.add(getTypeMirror(c));
+    }
+    Map<ExecutableElement, TypeMirror> immutableCopies = immutableCopyTypes(type, toImplement);
+    types.addAll(immutableCopies.values());
+    TypeMirror javaUtilRandom = getTypeMirror(Random.class);
+    if (autoValue.hashStrategy() == AutoValue.HashStrategy.SEEDED) {
+      // The hash seed is initialized with this type. Arrange to import it unless that would
+      // introduce ambiguity.
+      types.add(javaUtilRandom);
+    }
+    TypeMirror javaUtilComparator = typeUtils.erasure(getTypeMirror(Comparator.class));
+    if (compareBy) {
+      // The COMPARATOR field references this type. Arrange to import it unless that would
+      // introduce ambiguity.
+      types.add(javaUtilComparator);
+    }
+    if (autoValue.serializationProxy()) {
+      // The serialization proxy references these types. Arrange to import them unless that would
+      // introduce ambiguity.
+      types.addAll(serializationProxyTypes);
+    }
+    String pkg = TypeSimplifier.packageNameOf(type);
+    TypeSimplifier typeSimplifier = new TypeSimplifier(typeUtils, pkg, types, type.asType());
+    vars.imports = typeSimplifier.typesToImport();
+    vars.generated = typeSimplifier.simplify(javaxAnnotationGenerated);
+    vars.arrays = typeSimplifier.simplify(javaUtilArrays);
+    vars.map = typeSimplifier.simplify(javaUtilMap);
+    vars.collection = typeSimplifier.simplify(javaUtilCollection);
+    vars.linkedHashMap = typeSimplifier.simplify(javaUtilLinkedHashMap);
+    vars.weakHashMap = typeSimplifier.simplify(javaUtilWeakHashMap);
+    vars.weakReference = typeSimplifier.simplify(javaLangRefWeakReference);
+    vars.comparator = typeSimplifier.simplify(javaUtilComparator);
+    vars.random = typeSimplifier.simplify(javaUtilRandom);
+    vars.externalizable = typeSimplifier.simplify(serializationProxyTypes.get(0));
+    vars.objectInput = typeSimplifier.simplify(serializationProxyTypes.get(1));
+    vars.objectOutput = typeSimplifier.simplify(serializationProxyTypes.get(2));
+    vars.objectInputStream = typeSimplifier.simplify(serializationProxyTypes.get(3));
+    vars.ioException = typeSimplifier.simplify(serializationProxyTypes.get(4));
+    vars.invalidObjectException = typeSimplifier.simplify(serializationProxyTypes.get(5));
+    Map<ExecutableElement, String> methodToPropertyName = Maps.newLinkedHashMap();
+    boolean allGetters = allGetters(toImplement);
+    for (ExecutableElement method : toImplement) {
+      String methodName = method.getSimpleName().toString();
+      String name = allGetters ? nameWithoutPrefix(methodName) : methodName;
+      methodToPropertyName.put(method, name);
+    }
+    if (allGetters) {
+      checkDuplicateGetters(methodToPropertyName);
+    }
+    Map<ExecutableElement, String> methodToIdentifier = Maps.newLinkedHashMap(methodToPropertyName);
+    fixReservedIdentifiers(methodToIdentifier);
+    List<Property> props = new ArrayList<Property>();
+    for (ExecutableElement method : toImplement) {
+      String propertyType = typeSimplifier.simplify(method.getReturnType());
+      String propertyName = methodToPropertyName.get(method);
+      String identifier = methodToIdentifier.get(method);
+      String appendToClass = vars.toString ? appendToClass(method, pkg) : "";
+      Property prop = new Property(
+          propertyName, identifier, method, propertyType, appendToClass, typeSimplifier);
+      if (immutableCopies.containsKey(method)) {
+        prop.copyWith(typeSimplifier.simplify(immutableCopies.get(method)));
+      }
+      props.add(prop);
+    }
+    // If we are running from Eclipse, undo the work of its compiler which sorts methods.
+    eclipseHack().reorderProperties(props);
+    vars.props = props;
+    defineExcludedPropertyVars(type, vars);
+    vars.toStringCapacity = toStringCapacity(vars.simpleClassName, vars.toStringProps);
+    vars.serialVersionUID = getSerialVersionUID(type);
+    vars.formalTypes = typeSimplifier.formalTypeParametersString(type);
+    vars.actualTypes = actualTypeParametersString(type);
+    vars.wildcardTypes = wildcardTypeParametersString(type);
+    Set<String> identifiers = Sets.newHashSet(methodToIdentifier.values());
+    defineHashCodeCachingVars(type, identifiers, vars);
+    defineHashStrategyVars(type, identifiers, vars);
+    List<MemoizedMethod> memoizedMethods = new ArrayList<MemoizedMethod>();
+    for (ExecutableElement method : toMemoize) {
+      String methodName = method.getSimpleName().toString();
+      memoizedMethods.add(new MemoizedMethod(
+          method,
+          typeSimplifier.simplify(method.getReturnType()),
+          newIdentifier(methodName, identifiers),
+          newIdentifier(methodName + "Memoized", identifiers),
+          typeSimplifier));
+    }
+    vars.memoizedMethods = memoizedMethods;
+    defineInterningVars(type, identifiers, vars);
+    definePackedFieldVars(type, identifiers, vars);
+    defineLookupVars(type, identifiers, vars);
+    defineComparisonVars(type, methods, identifiers, vars);
+    defineWitherVars(type, methods, vars);
+    defineFingerprintVars(type, methods, vars);
+    defineBoundedToStringVars(type, vars);
+    defineMethodSplitVars(methods, identifiers, vars);
+    defineArrayAccessorVars(type, identifiers, vars);
+    defineSerializationProxyVars(type, methods, vars);
+  }
+
+  // Sets the vars for @AutoValue(toStringElementLimit). Each array, Collection or Map property is
+  // appended by a static helper method that stops after the limit. Redacted properties are never
+  // appended at all, so they need no helper.
+  private void defineBoundedToStringVars(TypeElement type, AutoValueTemplateVars vars) {
+    int limit = type.getAnnotation(AutoValue.class).toStringElementLimit();
+    if (limit < 0) {
+      reportError("@AutoValue toStringElementLimit cannot be negative", type);
+    }
+    vars.toStringElementLimit = limit;
+    vars.boundedArrays = new ArrayList<BoundedArray>();
+    vars.boundedCollections = false;
+    vars.boundedMaps = false;
+    if (limit <= 0 || !vars.toString) {
+      return;
+    }
+    Types typeUtils = processingEnv.getTypeUtils();
+    TypeMirror javaUtilCollection = typeUtils.erasure(getTypeMirror(Collection.class));
+    TypeMirror javaUtilMap = typeUtils.erasure(getTypeMirror(Map.class));
+    Set<BoundedArray> boundedArrays = new LinkedHashSet<BoundedArray>();
+    for (Property prop : vars.props) {
+      TypeMirror propType = prop.getTypeMirror();
+      if (prop.isRedacted()) {
+        continue;
+      } else if (propType.getKind() == TypeKind.ARRAY) {
+        BoundedArray array =
+            new BoundedArray(((ArrayType) propType).getComponentType().getKind());
+        boundedArrays.add(array);
+        prop.boundWith(array.toString());
+      } else if (typeUtils.isAssignable(typeUtils.erasure(propType), javaUtilCollection)) {
+        prop.boundWith("appendCollection");
+        vars.boundedCollections = true;
+      } else if (typeUtils.isAssignable(typeUtils.erasure(propType), javaUtilMap)) {
+        prop.boundWith("appendMap");
+        vars.boundedMaps = true;
+      }
+    }
+    vars.boundedArrays.addAll(boundedArrays);
+  }
+
+  /**
+   * HotSpot never JIT-compiles a method with more than this many bytes of bytecode (see
+   * {@code -XX:-DontCompileHugeMethods}), so such a method is interpreted however hot it is.
+   */
+  private static final int HUGE_METHOD_LIMIT = 8000;
+
+  /**
+   * The estimated size above which a generated equals, hashCode or toString method is split. This
+   * is well below {@link #HUGE_METHOD_LIMIT}, since the estimates are only approximate.
+   */
+  private static final int SPLIT_THRESHOLD = HUGE_METHOD_LIMIT / 2;
+
+  /**
+   * The largest estimated size of each helper method that a split method calls. This is HotSpot's
+   * default {@code -XX:FreqInlineSize}, so a hot helper can still be inlined into its caller.
+   */
+  private static final int CHUNK_LIMIT = 325;
+
+  // Sets the vars that split the per-property code of equals, hashCode and toString into helper
+  // methods, for any of those methods that would otherwise be too big to be JIT-compiled. A
+  // method that is not split has no chunks, and its code is generated inline as usual. The names
+  // of the helper methods are allocated like those of generated fields, so that they do not clash
+  // with a property or @Memoized method, and also avoid the names of the methods of the parent
+  // class, which a private helper method with the same parameters could not override.
+  private void defineMethodSplitVars(
+      List<ExecutableElement> methods, Set<String> identifiers, AutoValueTemplateVars vars) {
+    for (ExecutableElement method : methods) {
+      identifiers.add(method.getSimpleName().toString());
+    }
+    vars.equalsFieldChunks = ImmutableList.of();
+    vars.equalsChunks = ImmutableList.of();
+    int equalsSize = estimatedSize(vars.equalsFieldProps, ObjectMethodToOverride.EQUALS)
+        + estimatedSize(vars.equalsProps, ObjectMethodToOverride.EQUALS);
+    if (vars.equals && equalsSize > SPLIT_THRESHOLD) {
+      vars.equalsFieldChunks = methodChunks(
+          "equalFields", vars.equalsFieldProps, ObjectMethodToOverride.EQUALS, identifiers);
+      vars.equalsChunks = methodChunks(
+          "equalProperties", vars.equalsProps, ObjectMethodToOverride.EQUALS, identifiers);
+    }
+    vars.hashCodeChunks = ImmutableList.of();
+    if (vars.hashCode
+        && estimatedSize(vars.hashedProps, ObjectMethodToOverride.HASH_CODE) > SPLIT_THRESHOLD) {
+      vars.hashCodeChunks = methodChunks(
+          "hashCode", vars.hashedProps, ObjectMethodToOverride.HASH_CODE, identifiers);
+    }
+    vars.toStringChunks = ImmutableList.of();
+    if (vars.toString
+        && estimatedSize(vars.toStringProps, ObjectMethodToOverride.TO_STRING) > SPLIT_THRESHOLD) {
+      vars.toStringChunks = methodChunks(
+          "appendProperties", vars.toStringProps, ObjectMethodToOverride.TO_STRING, identifiers);
+    }
+  }
+
+  // Divides the given properties, in order, into chunks whose estimated size is at most
+  // CHUNK_LIMIT, except that a chunk always has at least one property. The name of each chunk is
+  // the prefix followed by its index, disambiguated against the given identifiers.
+  private List<MethodChunk> methodChunks(String prefix, List<Property> props,
+      ObjectMethodToOverride method, Set<String> identifiers) {
+    List<MethodChunk> chunks = new ArrayList<MethodChunk>();
+    List<Property> chunk = new ArrayList<Property>();
+    int size = 0;
+    for (Property prop : props) {
+      int propSize = estimatedSize(prop, method);
+      if (!chunk.isEmpty() && size + propSize > CHUNK_LIMIT) {
+        String name = newIdentifier(prefix + chunks.size(), identifiers);
+        chunks.add(new MethodChunk(name, chunk));
+        chunk = new ArrayList<Property>();
+        size = 0;
+      }
+      chunk.add(prop);
+      size += propSize;
+    }
+    if (!chunk.isEmpty()) {
+      String name = newIdentifier(prefix + chunks.size(), identifiers);
+      chunks.add(new MethodChunk(name, chunk));
+    }
+    return chunks;
+  }
+
+  private static int estimatedSize(List<Property> props, ObjectMethodToOverride method) {
+    int size = 0;
+    for (Property prop : props) {
+      size += estimatedSize(prop, method);
+    }
+    return size;
+  }
+
+  // The approximate number of bytes of bytecode for the given property in the given generated
+  // method. These numbers were measured from the output of javac and rounded up. Reading a packed
+  // property costs the same extra shifting and masking everywhere.
+  private static int estimatedSize(Property prop, ObjectMethodToOverride method) {
+    TypeKind kind = prop.getKind();
+    boolean object = !kind.isPrimitive() && kind != TypeKind.ARRAY && !prop.isEnum();
+    int size;
+    switch (method) {
+      case EQUALS:
+        if (kind == TypeKind.FLOAT || kind == TypeKind.DOUBLE) {
+          size = 18;
+        } else if (kind == TypeKind.ARRAY) {
+          size = 14;
+        } else if (object) {
+          size = prop.isNullable() ? 31 : 15;
+        } else {
+          size = 12;
+        }
+        break;
+      case HASH_CODE:
+        if (kind == TypeKind.LONG) {
+          size = 23;
+        } else if (kind == TypeKind.DOUBLE) {
+          size = 29;
+        } else if (kind == TypeKind.BOOLEAN) {
+          size = 25;
+        } else if (object && prop.isNullable()) {
+          size = 27;
+        } else if (kind.isPrimitive() && kind != TypeKind.FLOAT) {
+          size = 13;
+        } else {
+          size = 16;
+        }
+        break;
+      case TO_STRING:
+        if (prop.isRedacted()) {
+          size = 8;
+        } else if (!prop.getAppendToClass().isEmpty()) {
+          size = 45;
+        } else if (kind == TypeKind.ARRAY && prop.getToStringHelper().isEmpty()) {
+          size = 21;
+        } else {
+          size = 17;
+        }
+        break;
+      default:
+        throw new AssertionError(method);
+    }
+    return prop.isPacked() ? size + 12 : size;
+  }
+
+  /**
+   * A private helper method of the generated class that does the work of a generated
+   * {@code equals}, {@code hashCode} or {@code toString} method for some of the properties, when
+   * that method is split because it would otherwise be too big to be JIT-compiled.
+   */
+  public static class MethodChunk {
+    private final String name;
+    private final List<Property> props;
+
+    MethodChunk(String name, List<Property> props) {
+      this.name = name;
+      this.props = props;
+    }
+
+    /** Returns the name of the helper method. */
+    @Override
+    public String toString() {
+      return name;
+    }
+
+    /** Returns the properties that the helper method handles, in order. */
+    public List<Property> getProps() {
+      return props;
+    }
+  }
+
+  private boolean containsSubtype(Collection<TypeMirror> types, TypeMirror superType) {
+    Types typeUtils = processingEnv.getTypeUtils();
+    for (TypeMirror type : types) {
+      if (type.getKind() == TypeKind.DECLARED
+          && typeUtils.isAssignable(typeUtils.erasure(type), superType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Sets the lists of the properties that equals, hashCode and toString use, leaving out those
+  // annotated @ExcludeFromEquals.
+  private void defineExcludedPropertyVars(TypeElement type, AutoValueTemplateVars vars) {
+    List<Property> hashedProps = new ArrayList<Property>();
+    List<Property> toStringProps = new ArrayList<Property>();
+    boolean excluded = false;
+    for (Property prop : vars.props) {
+      if (prop.isExcludedFromEquals()) {
+        excluded = true;
+      } else {
+        hashedProps.add(prop);
+      }
+      if (!prop.isExcludedFromToString()) {
+        toStringProps.add(prop);
+      }
+    }
+    if (excluded && !vars.equals && !vars.hashCode) {
+      reportWarning("@ExcludeFromEquals has no effect because " + type
+          + " defines its own equals(Object) and hashCode()", type);
+    }
+    vars.hashedProps = hashedProps;
+    vars.equalsProps = propertiesInComparisonOrder(hashedProps);
+    vars.toStringProps = toStringProps;
+  }
+
+  private void definePackedFieldVars(
+      TypeElement type, Set<String> identifiers, AutoValueTemplateVars vars) {
+    List<PackedWord> packedWords = ImmutableList.of();
+    if (type.getAnnotation(AutoValue.class).packFields()) {
+      List<Property> packable = new ArrayList<Property>();
+      for (Property prop : vars.props) {
+        // The generated equals compares packed fields as a whole, so they can only hold
+        // properties that it compares.
+        if (prop.packedBits() > 0 && !prop.isExcludedFromEquals()) {
+          packable.add(prop);
+        }
+      }
+      if (packable.size() < 2) {
+        reportWarning("@AutoValue(packFields = true) has no effect because " + type
+            + " has fewer than two properties that can be packed", type);
+      } else {
+        packedWords = packProperties(packable, Ordering.explicit(vars.props), identifiers);
+      }
+    }
+    vars.packedWords = packedWords;
+    List<Property> equalsFieldProps = new ArrayList<Property>();
+    for (Property prop : vars.equalsProps) {
+      if (!prop.isPacked()) {
+        equalsFieldProps.add(prop);
+      }
+    }
+    vars.equalsFieldProps = equalsFieldProps;
+  }
+
+  /**
+   * Assigns each of the given properties to some of the bits of a packed field, and returns those
+   * fields. Properties are placed first-fit in decreasing order of size, which wastes few bits
+   * since all sizes except those of enums are powers of two. A field whose properties need no more
+   * than 32 bits is an {@code int}, and any other is a {@code long}.
+   */
+  private List<PackedWord> packProperties(
+      List<Property> packable, Ordering<Property> declarationOrder, Set<String> identifiers) {
+    List<Property> bySize = new ArrayList<Property>(packable);
+    Collections.sort(bySize, new Comparator<Property>() {
+      @Override
+      public int compare(Property a, Property b) {
+        return b.packedBits() - a.packedBits();
+      }
+    });
+    List<List<Property>> bins = new ArrayList<List<Property>>();
+    List<Integer> binSizes = new ArrayList<Integer>();
+    for (Property prop : bySize) {
+      int bits = prop.packedBits();
+      int bin = 0;
+      while (bin < bins.size() && binSizes.get(bin) + bits > 64) {
+        bin++;
+      }
+      if (bin == bins.size()) {
+        bins.add(new ArrayList<Property>());
+        binSizes.add(0);
+      }
+      bins.get(bin).add(prop);
+      binSizes.set(bin, binSizes.get(bin) + bits);
+    }
+    ImmutableList.Builder<PackedWord> words = ImmutableList.builder();
+    for (int i = 0; i < bins.size(); i++) {
+      String name = newIdentifier("bits" + i, identifiers);
+      boolean isInt = binSizes.get(i) <= 32;
+      int shift = 0;
+      List<Property> bin = declarationOrder.sortedCopy(bins.get(i));
+      for (Property prop : bin) {
+        String enumValues = prop.isEnum()
+            ? newIdentifier(
+                CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, prop.toString()) + "_VALUES",
+                identifiers)
+            : "";
+        prop.pack(name, isInt, shift, enumValues);
+        shift += prop.packedBits();
+      }
+      words.add(new PackedWord(name, isInt, bin));
+    }
+    return words.build();
+  }
+
+  // The types referenced by the serialization proxy, in the order that defineVarsForType expects.
+  private static final ImmutableList<Class<?>> SERIALIZATION_PROXY_CLASSES =
+      ImmutableList.<Class<?>>of(
+          Externalizable.class,
+          ObjectInput.class,
+          ObjectOutput.class,
+          ObjectInputStream.class,
+          IOException.class,
+          InvalidObjectException.class);
+
+  private void defineSerializationProxyVars(
+      TypeElement type, List<ExecutableElement> methods, AutoValueTemplateVars vars) {
+    boolean serializationProxy = type.getAnnotation(AutoValue.class).serializationProxy();
+    if (serializationProxy) {
+      TypeMirror serializable = getTypeMirror(Serializable.class);
+      if (!processingEnv.getTypeUtils().isAssignable(type.asType(), serializable)) {
+        reportError("@AutoValue(serializationProxy = true) can only be used on a class that "
+            + "implements Serializable", type);
+      }
+      for (ExecutableElement method : methods) {
+        String name = method.getSimpleName().toString();
+        if ((name.equals("writeReplace") || name.equals("readResolve"))
+            && method.getParameters().isEmpty()) {
+          reportError("@AutoValue(serializationProxy = true) cannot be used on a class that "
+              + "defines " + name + "()", method);
+        }
+      }
+    }
+    vars.serializationProxy = serializationProxy;
+    boolean uncheckedCast = false;
+    CRC32 crc = new CRC32();
+    for (Property prop : vars.props) {
+      uncheckedCast |= TypeSimplifier.isCastingUnchecked(prop.getTypeMirror());
+      crc.update((prop.getName() + ":" + prop.getTypeMirror() + ";").getBytes(UTF_8));
+    }
+    vars.serializationProxyUncheckedCast = uncheckedCast;
+    // The serialized form is only compatible with classes that have the same properties in the
+    // same order, so its serialVersionUID is derived from the properties.
+    vars.serializationProxyVersionUID = crc.getValue() + "L";
+  }
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Defines a static accessor for each array property that the getter copies, if a generated
+  // companion class reads the arrays, so that encoding or writing a value, or copying it into a
+  // mutable object, copies each array at most once. The fields themselves stay private.
+  private void defineArrayAccessorVars(
+      TypeElement type, Set<String> identifiers, AutoValueTemplateVars vars) {
+    AutoValue autoValue = type.getAnnotation(AutoValue.class);
+    if (!autoValue.binaryCodec() && !autoValue.mutable() && !autoValue.jsonAdapter()) {
+      return;
+    }
+    for (Property prop : vars.props) {
+      if (prop.isCopiedArray()) {
+        prop.defineArrayAccessor(newIdentifier(prop + "WithoutCopy", identifiers));
+      }
+    }
+  }
+
+  private void defineInterningVars(
+      TypeElement type, Set<String> identifiers, AutoValueTemplateVars vars) {
+    AutoValue autoValue = type.getAnnotation(AutoValue.class);
+    if (autoValue.internMaximumSize() < 0) {
+      reportError("@AutoValue internMaximumSize cannot be negative", type);
+    }
+    vars.intern = autoValue.intern();
+    vars.internMaximumSize = autoValue.internMaximumSize();
+    vars.internedField = newIdentifier("INTERNED", identifiers);
+  }
+
+  /**
+   * The Guava immutable collection that the constructor copies each kind of collection property to,
+   * if the class is {@code @AutoValue(immutableCollections = true)}.
+   */
+  private static final ImmutableMap<String, String> IMMUTABLE_COLLECTIONS = ImmutableMap.of(
+      "java.util.List", "com.google.common.collect.ImmutableList",
+      "java.util.Set", "com.google.common.collect.ImmutableSet",
+      "java.util.Map", "com.google.common.collect.ImmutableMap");
+
+  // Returns the erased immutable collection type that the constructor copies each List, Set or Map
+  // property to, or an empty map if immutableCollections is false.
+  private Map<ExecutableElement, TypeMirror> immutableCopyTypes(
+      TypeElement type, List<ExecutableElement> toImplement) {
+    Map<ExecutableElement, TypeMirror> copies = Maps.newLinkedHashMap();
+    if (!type.getAnnotation(AutoValue.class).immutableCollections()) {
+      return copies;
+    }
+    Types typeUtils = processingEnv.getTypeUtils();
+    Elements elementUtils = processingEnv.getElementUtils();
+    for (ExecutableElement method : toImplement) {
+      TypeMirror returnType = method.getReturnType();
+      if (returnType.getKind() != TypeKind.DECLARED) {
+        continue;
+      }
+      TypeElement returnElement = (TypeElement) typeUtils.asElement(returnType);
+      String immutable = IMMUTABLE_COLLECTIONS.get(returnElement.getQualifiedName().toString());
+      if (immutable == null) {
+        continue;
+      }
+      TypeElement immutableElement = elementUtils.getTypeElement(immutable);
+      if (immutableElement == null) {
+        reportError("@AutoValue(immutableCollections = true) requires " + immutable
+            + " from Guava", method);
+        continue;
+      }
+      copies.put(method, typeUtils.erasure(immutableElement.asType()));
+    }
+    if (copies.isEmpty()) {
+      reportWarning("@AutoValue(immutableCollections = true) has no effect because " + type
+          + " has no List, Set or Map properties", type);
+    }
+    return copies;
+  }
+
+  private void defineLookupVars(
+      TypeElement type, Set<String> identifiers, AutoValueTemplateVars vars) {
+    boolean lookupMethods = type.getAnnotation(AutoValue.class).lookupMethods();
+    if (lookupMethods && !vars.equals && !vars.hashCode) {
+      reportWarning("@AutoValue(lookupMethods = true) has no effect because " + type
+          + " defines its own equals(Object) and hashCode()", type);
+      lookupMethods = false;
+    }
+    vars.lookupMethods = lookupMethods;
+    vars.lookupHash = newIdentifier("h", identifiers);
+    vars.lookupInstance = newIdentifier("instance", identifiers);
+  }
+
+  private void defineComparisonVars(
+      TypeElement type,
+      List<ExecutableElement> methods,
+      Set<String> identifiers,
+      AutoValueTemplateVars vars) {
+    Types typeUtils = processingEnv.getTypeUtils();
+    Map<String, Property> propertiesByName = new LinkedHashMap<String, Property>();
+    for (Property prop : vars.props) {
+      propertiesByName.put(prop.getName(), prop);
+    }
+    for (Property prop : vars.props) {
+      if (prop.getMethod().getAnnotation(Unsigned.class) != null
+          && !isUnsignedKind(prop.getTypeMirror())) {
+        reportError("@Unsigned can only be applied to a property of type byte, short, int or "
+            + "long, or an array of one of those types", prop.getMethod());
+      }
+    }
+    TypeMirror comparable = typeUtils.erasure(getTypeMirror(Comparable.class));
+    List<ComparedProperty> comparedProps = new ArrayList<ComparedProperty>();
+    Set<ArrayComparison> arrayComparisons = new LinkedHashSet<ArrayComparison>();
+    Set<String> seen = new HashSet<String>();
+    for (String entry : type.getAnnotation(AutoValue.class).compareBy()) {
+      boolean descending = entry.startsWith("-");
+      String name = descending ? entry.substring(1) : entry;
+      Property prop = propertiesByName.get(name);
+      if (prop == null) {
+        reportError("@AutoValue(compareBy) refers to " + name + ", which is not a property of "
+            + type, type);
+        continue;
+      }
+      if (!seen.add(name)) {
+        reportError("@AutoValue(compareBy) refers to " + name + " more than once", type);
+        continue;
+      }
+      TypeMirror propType = prop.getTypeMirror();
+      boolean comparableType = propType.getKind().isPrimitive()
+          || propType.getKind() == TypeKind.ARRAY
+          || (propType.getKind() == TypeKind.DECLARED
+              && typeUtils.isAssignable(propType, comparable)
+              && !TypeSimplifier.isCastingUnchecked(propType));
+      if (!comparableType) {
+        reportError("@AutoValue(compareBy) cannot compare " + name + " because its type "
+            + propType + " is not primitive, a primitive array, or Comparable", prop.getMethod());
+        continue;
+      }
+      boolean unsigned = prop.getMethod().getAnnotation(Unsigned.class) != null;
+      ComparedProperty comparedProp =
+          new ComparedProperty(prop, descending, unsigned, vars.subclass, vars.wildcardTypes);
+      comparedProps.add(comparedProp);
+      if (comparedProp.arrayComparison() != null) {
+        arrayComparisons.add(comparedProp.arrayComparison());
+      }
+    }
+    vars.comparedProps = comparedProps;
+    vars.arrayComparisons = new ArrayList<ArrayComparison>(arrayComparisons);
+    vars.comparatorField = newIdentifier("COMPARATOR", identifiers);
+    vars.compareTo = false;
+    if (comparedProps.isEmpty()) {
+      return;
+    }
+    for (ExecutableElement method : methods) {
+      if (method.getModifiers().contains(Modifier.ABSTRACT) && isCompareToMethod(method)) {
+        ExecutableType methodType = (ExecutableType)
+            typeUtils.asMemberOf((DeclaredType) type.asType(), method);
+        if (!typeUtils.isSameType(methodType.getParameterTypes().get(0), type.asType())) {
+          reportError("@AutoValue(compareBy) can only implement compareTo if " + type
+              + " implements Comparable<" + type + ">", type);
+        }
+        vars.compareTo = true;
+      }
+    }
+  }
 
-      for (AnnotationMirror annotationMirror : method.getAnnotationMirrors()) {
-        TypeElement annotationElement =
-            (TypeElement) annotationMirror.getAnnotationType().asElement();
-        if (annotationElement.getQualifiedName().toString().equals(Override.class.getName())) {
-          // Don't copy @Override if present, since we will be adding our own @Override in the
-          // implementation.
-          continue;
+  private void defineWitherVars(
+      TypeElement type, List<ExecutableElement> methods, AutoValueTemplateVars vars) {
+    List<Wither> withers = new ArrayList<Wither>();
+    if (!type.getAnnotation(AutoValue.class).withers()) {
+      vars.withers = withers;
+      return;
+    }
+    Types typeUtils = processingEnv.getTypeUtils();
+    DeclaredType declaredType = (DeclaredType) type.asType();
+    Set<ExecutableElement> abstractWithers = new LinkedHashSet<ExecutableElement>();
+    for (ExecutableElement method : methods) {
+      if (method.getModifiers().contains(Modifier.ABSTRACT) && isWitherMethod(method)) {
+        abstractWithers.add(method);
+      }
+    }
+    for (Property prop : vars.props) {
+      String name = "with" + Character.toUpperCase(prop.getName().charAt(0))
+          + prop.getName().substring(1);
+      ExecutableElement existing = null;
+      for (ExecutableElement method : methods) {
+        if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == 1) {
+          ExecutableType methodType =
+              (ExecutableType) typeUtils.asMemberOf(declaredType, method);
+          if (typeUtils.isSameType(methodType.getParameterTypes().get(0), prop.getTypeMirror())) {
+            existing = method;
+          }
         }
-        String annotationName = typeSimplifier.simplify(annotationMirror.getAnnotationType());
-        String annotation = "@" + annotationName;
-        List<String> values = Lists.newArrayList();
-        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
-            annotationMirror.getElementValues().entrySet()) {
-          values.add(entry.getKey().getSimpleName() + "=" + entry.getValue());
+      }
+      if (existing == null) {
+        withers.add(new Wither(prop, name, "", false));
+      } else if (existing.getModifiers().contains(Modifier.ABSTRACT)) {
+        abstractWithers.remove(existing);
+        ExecutableType methodType = (ExecutableType) typeUtils.asMemberOf(declaredType, existing);
+        if (!typeUtils.isAssignable(declaredType, methodType.getReturnType())) {
+          reportError("Method " + name + " must return " + type, existing);
         }
+        withers.add(new Wither(prop, name, accessModifier(existing), true));
+      }
+      // Otherwise the @AutoValue class has its own implementation of the method.
+    }
+    for (ExecutableElement method : abstractWithers) {
+      reportError("Abstract method " + method.getSimpleName() + " does not correspond to a "
+          + "property of " + type, method);
+    }
+    vars.withers = withers;
+  }
 
-        if (!values.isEmpty()) {
-          annotation += "(" + Joiner.on(", ").join(values) + ")";
-        }
+  private static boolean isWitherMethod(ExecutableElement method) {
+    String name = method.getSimpleName().toString();
+    return name.startsWith("with")
+        && name.length() > "with".length()
+        && method.getParameters().size() == 1;
+  }
 
-        builder.add(annotation);
+  private void defineFingerprintVars(
+      TypeElement type, List<ExecutableElement> methods, AutoValueTemplateVars vars) {
+    vars.fingerprintedProps = new ArrayList<FingerprintedProperty>();
+    vars.fingerprintArrays = new ArrayList<FingerprintArray>();
+    vars.fingerprint = false;
+    vars.fingerprintStrings = false;
+    vars.fingerprintNested = false;
+    vars.fingerprint64 = false;
+    vars.fingerprint64Override = false;
+    vars.fingerprint128 = false;
+    vars.fingerprint128Override = false;
+    if (!type.getAnnotation(AutoValue.class).fingerprint()) {
+      return;
+    }
+    boolean fingerprint64 = true;
+    boolean fingerprint128 = true;
+    for (ExecutableElement method : methods) {
+      if (isFingerprintMethod(method)) {
+        boolean isAbstract = method.getModifiers().contains(Modifier.ABSTRACT);
+        if (method.getSimpleName().contentEquals("fingerprint64")) {
+          fingerprint64 = isAbstract;
+          vars.fingerprint64Override = isAbstract;
+        } else {
+          fingerprint128 = isAbstract;
+          vars.fingerprint128Override = isAbstract;
+        }
       }
-
-      return builder.build();
     }
-
-    /**
-     * Returns the name of the property as it should be used when declaring identifiers (fields and
-     * parameters). If the original getter method was {@code foo()} then this will be {@code foo}.
-     * If it was {@code getFoo()} then it will be {@code foo}. If it was {@code getPackage()} then
-     * it will be something like {@code package0}, since {@code package} is a reserved word.
-     */
-    @Override
-    public String toString() {
-      return identifier;
+    if (!fingerprint64 && !fingerprint128) {
+      reportWarning("@AutoValue(fingerprint = true) has no effect because " + type
+          + " defines its own fingerprint64() and fingerprint128()", type);
+      return;
     }
-
-    /**
-     * Returns the name of the property as it should be used in strings visible to users. This is
-     * usually the same as {@code toString()}, except that if we had to use an identifier like
-     * "package0" because "package" is a reserved word, the name here will be the original
-     * "package".
-     */
-    public String getName() {
-      return name;
+    boolean errors = false;
+    Set<FingerprintArray> fingerprintArrays = new LinkedHashSet<FingerprintArray>();
+    for (Property prop : vars.hashedProps) {
+      FingerprintedProperty fingerprinted = fingerprintedProperty(prop);
+      if (fingerprinted == null) {
+        reportError("@AutoValue(fingerprint = true) does not support properties of type "
+            + prop.getTypeMirror() + ", which is not a primitive, a boxed primitive, String, an "
+            + "enum, a primitive array, or a type with a long[] fingerprint128() method",
+            prop.getMethod());
+        errors = true;
+        continue;
+      }
+      String form = fingerprinted.getForm();
+      if (form.equals("ARRAY")) {
+        fingerprintArrays.add(fingerprinted.getArray());
+      } else if (form.equals("STRING") || form.equals("ENUM")) {
+        vars.fingerprintStrings = true;
+      } else if (form.equals("NESTED")) {
+        vars.fingerprintNested = true;
+      }
+      vars.fingerprintedProps.add(fingerprinted);
     }
-
-    /**
-     * Returns the name of the getter method for this property as defined by the {@code @AutoValue}
-     * class. For property {@code foo}, this will be {@code foo} or {@code getFoo} or {@code isFoo}.
-     */
-    public String getGetter() {
-      return method.getSimpleName().toString();
+    if (errors) {
+      return;
     }
+    vars.fingerprintArrays.addAll(fingerprintArrays);
+    vars.fingerprint = true;
+    vars.fingerprint64 = fingerprint64;
+    vars.fingerprint128 = fingerprint128;
+  }
 
-    TypeElement getOwner() {
-      return (TypeElement) method.getEnclosingElement();
+  // Returns a FingerprintedProperty describing how to feed the given property to a fingerprint, or
+  // null if its type is not supported.
+  private FingerprintedProperty fingerprintedProperty(Property prop) {
+    TypeMirror propType = prop.getTypeMirror();
+    TypeKind kind = propType.getKind();
+    if (kind.isPrimitive()) {
+      return new FingerprintedProperty(prop, FingerprintForm.WORD, kind, false);
+    } else if (kind == TypeKind.ARRAY) {
+      TypeKind elementKind = ((ArrayType) propType).getComponentType().getKind();
+      return elementKind.isPrimitive()
+          ? new FingerprintedProperty(prop, FingerprintForm.ARRAY, elementKind, false)
+          : null;
+    } else if (kind != TypeKind.DECLARED) {
+      return null;
     }
-
-    TypeMirror getTypeMirror() {
-      return method.getReturnType();
+    TypeElement element = (TypeElement) ((DeclaredType) propType).asElement();
+    if (element.getQualifiedName().contentEquals("java.lang.String")) {
+      return new FingerprintedProperty(prop, FingerprintForm.STRING, kind, false);
+    } else if (element.getKind() == ElementKind.ENUM) {
+      return new FingerprintedProperty(prop, FingerprintForm.ENUM, kind, false);
     }
-
-    public String getType() {
-      return type;
+    try {
+      TypeKind unboxedKind = processingEnv.getTypeUtils().unboxedType(propType).getKind();
+      return new FingerprintedProperty(prop, FingerprintForm.WORD, unboxedKind, true);
+    } catch (IllegalArgumentException e) {
+      // Not a boxed primitive type.
     }
-
-    public TypeKind getKind() {
-      return method.getReturnType().getKind();
+    List<ExecutableElement> members =
+        ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(element));
+    for (ExecutableElement method : members) {
+      if (method.getSimpleName().contentEquals("fingerprint128")
+          && !method.getModifiers().contains(Modifier.STATIC)
+          && isFingerprintMethod(method)) {
+        return new FingerprintedProperty(prop, FingerprintForm.NESTED, kind, false);
+      }
     }
+    return null;
+  }
 
-    public List<String> getAnnotations() {
-      return annotations;
+  private static boolean isFingerprintMethod(ExecutableElement method) {
+    if (!method.getParameters().isEmpty()) {
+      return false;
     }
+    TypeMirror returnType = method.getReturnType();
+    if (method.getSimpleName().contentEquals("fingerprint64")) {
+      return returnType.getKind() == TypeKind.LONG;
+    } else if (method.getSimpleName().contentEquals("fingerprint128")) {
+      return returnType.getKind() == TypeKind.ARRAY
+          && ((ArrayType) returnType).getComponentType().getKind() == TypeKind.LONG;
+    }
+    return false;
+  }
 
-    public boolean isNullable() {
-      for (AnnotationMirror annotationMirror : method.getAnnotationMirrors()) {
-        String name = annotationMirror.getAnnotationType().asElement().getSimpleName().toString();
-        if (name.equals("Nullable")) {
-          return true;
-        }
-      }
-      return false;
+  private static boolean isUnsignedKind(TypeMirror type) {
+    if (type.getKind() == TypeKind.ARRAY) {
+      type = ((ArrayType) type).getComponentType();
+    }
+    switch (type.getKind()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        return true;
+      default:
+        return false;
     }
+  }
 
-    public String getAccess() {
-      Set<Modifier> mods = method.getModifiers();
-      if (mods.contains(Modifier.PUBLIC)) {
-        return "public ";
-      } else if (mods.contains(Modifier.PROTECTED)) {
-        return "protected ";
-      } else {
-        return "";
-      }
+  private static boolean isCompareToMethod(ExecutableElement method) {
+    return method.getSimpleName().contentEquals("compareTo")
+        && method.getParameters().size() == 1
+        && method.getReturnType().getKind() == TypeKind.INT;
+  }
+
+  private void defineHashStrategyVars(
+      TypeElement type, Set<String> identifiers, AutoValueTemplateVars vars) {
+    AutoValue.HashStrategy hashStrategy = type.getAnnotation(AutoValue.class).hashStrategy();
+    if (hashStrategy != AutoValue.HashStrategy.STANDARD && !vars.hashCode) {
+      reportWarning("@AutoValue(hashStrategy = " + hashStrategy + ") has no effect because "
+          + type + " defines its own hashCode()", type);
+      hashStrategy = AutoValue.HashStrategy.STANDARD;
     }
+    vars.hashMix = hashStrategy != AutoValue.HashStrategy.STANDARD;
+    vars.hashSeed = (hashStrategy == AutoValue.HashStrategy.SEEDED)
+        ? newIdentifier("HASH_SEED", identifiers)
+        : "";
+    vars.hashInit = vars.hashSeed.isEmpty() ? "1" : vars.hashSeed;
   }
 
-  private static boolean isJavaLangObject(TypeElement type) {
-    return type.getSuperclass().getKind() == TypeKind.NONE && type.getKind() == ElementKind.CLASS;
+  private void defineHashCodeCachingVars(
+      TypeElement type, Set<String> identifiers, AutoValueTemplateVars vars) {
+    boolean cacheHashCode = type.getAnnotation(AutoValue.class).cacheHashCode();
+    if (cacheHashCode && !vars.hashCode) {
+      reportWarning("@AutoValue(cacheHashCode = true) has no effect because " + type
+          + " defines its own hashCode()", type);
+      cacheHashCode = false;
+    }
+    vars.cacheHashCode = cacheHashCode;
+    vars.hashCodeField = newIdentifier("hashCode", identifiers);
   }
 
-  private enum ObjectMethodToOverride {
-    NONE, TO_STRING, EQUALS, HASH_CODE
+  /**
+   * An estimate of how expensive it is to compare two values of a property in the generated
+   * {@code equals} method. The constants are in increasing order of cost.
+   */
+  private enum ComparisonCost {
+    /** Primitives are compared with {@code ==} and enums by identity. */
+    PRIMITIVE_OR_ENUM,
+    /** Strings and boxed primitives have cheap, non-recursive {@code equals} methods. */
+    STRING_OR_BOXED,
+    /** We know nothing about the cost of comparing other objects. */
+    OTHER,
+    /** Comparing arrays and collections means comparing every element. */
+    ARRAY_OR_COLLECTION,
   }
 
-  private static ObjectMethodToOverride objectMethodToOverride(ExecutableElement method) {
-    String name = method.getSimpleName().toString();
-    switch (method.getParameters().size()) {
-      case 0:
-        if (name.equals("toString")) {
-          return ObjectMethodToOverride.TO_STRING;
-        } else if (name.equals("hashCode")) {
-          return ObjectMethodToOverride.HASH_CODE;
-        }
-        break;
-      case 1:
-        if (name.equals("equals")
-            && method.getParameters().get(0).asType().toString().equals("java.lang.Object")) {
-          return ObjectMethodToOverride.EQUALS;
-        }
-        break;
+  /**
+   * Returns the given properties in the order in which the generated {@code equals} method should
+   * compare them. When two objects are unequal, it is usually cheapest to discover that by
+   * comparing the cheapest properties first, so properties are sorted by their estimated
+   * {@link ComparisonCost}. Properties with the same cost stay in declaration order, as they do
+   * everywhere else.
+   */
+  private List<Property> propertiesInComparisonOrder(List<Property> props) {
+    Map<ComparisonCost, List<Property>> propsByCost = Maps.newEnumMap(ComparisonCost.class);
+    for (ComparisonCost cost : ComparisonCost.values()) {
+      propsByCost.put(cost, new ArrayList<Property>());
     }
-    return ObjectMethodToOverride.NONE;
+    for (Property prop : props) {
+      propsByCost.get(comparisonCost(prop)).add(prop);
+    }
+    return ImmutableList.copyOf(Iterables.concat(propsByCost.values()));
   }
 
-  private void findLocalAndInheritedMethods(TypeElement type, List<ExecutableElement> methods) {
-    note("Looking at methods in " + type);
+  private ComparisonCost comparisonCost(Property prop) {
+    TypeMirror type = prop.getTypeMirror();
+    if (type.getKind().isPrimitive() || prop.isEnum()) {
+      return ComparisonCost.PRIMITIVE_OR_ENUM;
+    }
+    if (type.getKind() == TypeKind.ARRAY) {
+      return ComparisonCost.ARRAY_OR_COLLECTION;
+    }
     Types typeUtils = processingEnv.getTypeUtils();
-    Elements elementUtils = processingEnv.getElementUtils();
-    for (TypeMirror superInterface : type.getInterfaces()) {
-      findLocalAndInheritedMethods((TypeElement) typeUtils.asElement(superInterface), methods);
+    try {
+      typeUtils.unboxedType(type);
+      return ComparisonCost.STRING_OR_BOXED;
+    } catch (IllegalArgumentException e) {
+      // Not a boxed primitive type.
     }
-    if (type.getSuperclass().getKind() != TypeKind.NONE) {
-      // Visit the superclass after superinterfaces so we will always see the implementation of a
-      // method after any interfaces that declared it.
-      findLocalAndInheritedMethods(
-          (TypeElement) typeUtils.asElement(type.getSuperclass()), methods);
+    if (typeUtils.isSameType(type, getTypeMirror(String.class))) {
+      return ComparisonCost.STRING_OR_BOXED;
     }
-    // Add each method of this class, and in so doing remove any inherited method it overrides.
-    // This algorithm is quadratic in the number of methods but it's hard to see how to improve
-    // that while still using Elements.overrides.
-    List<ExecutableElement> theseMethods = ElementFilter.methodsIn(type.getEnclosedElements());
-    for (ExecutableElement method : theseMethods) {
-      if (!method.getModifiers().contains(Modifier.PRIVATE)) {
-        boolean alreadySeen = false;
-        for (Iterator<ExecutableElement> methodIter = methods.iterator(); methodIter.hasNext();) {
-          ExecutableElement otherMethod = methodIter.next();
-          if (elementUtils.overrides(method, otherMethod, type)) {
-            methodIter.remove();
-          } else if (method.getSimpleName().equals(otherMethod.getSimpleName())
-              && method.getParameters().equals(otherMethod.getParameters())) {
-            // If we inherit this method on more than one path, we don't want to add it twice.
-            alreadySeen = true;
-          }
-        }
-        if (!alreadySeen) {
-          methods.add(method);
-        }
+    TypeMirror erasure = typeUtils.erasure(type);
+    if (typeUtils.isAssignable(erasure, typeUtils.erasure(getTypeMirror(Collection.class)))
+        || typeUtils.isAssignable(erasure, typeUtils.erasure(getTypeMirror(Map.class)))) {
+      return ComparisonCost.ARRAY_OR_COLLECTION;
+    }
+    return ComparisonCost.OTHER;
+  }
+
+  // Sets the appendTo fields of vars. The generated class has an appendTo(StringBuilder) method
+  // whenever it has a generated toString() and the @AutoValue class does not already have a
+  // concrete method with that signature. If the @AutoValue class declares the method as abstract,
+  // so that callers can use it without referencing the generated class, then we implement it.
+  private void defineAppendToVars(List<ExecutableElement> methods, AutoValueTemplateVars vars) {
+    ExecutableElement appendTo = appendToMethod(methods);
+    boolean isAbstract = appendTo != null && appendTo.getModifiers().contains(Modifier.ABSTRACT);
+    if (isAbstract) {
+      if (!vars.toString) {
+        abortWithError("@AutoValue class cannot have an abstract appendTo(StringBuilder) method "
+            + "unless its toString() method is generated", appendTo);
+      }
+      TypeMirror stringBuilder = getTypeMirror(StringBuilder.class);
+      if (!processingEnv.getTypeUtils().isSameType(appendTo.getReturnType(), stringBuilder)) {
+        abortWithError("Abstract appendTo(StringBuilder) method must return StringBuilder",
+            appendTo);
       }
     }
+    vars.appendTo = vars.toString && (appendTo == null || isAbstract);
+    vars.appendToOverride = isAbstract;
   }
 
-  private void processType(TypeElement type) {
-    AutoValue autoValue = type.getAnnotation(AutoValue.class);
-    if (autoValue == null) {
-      // This shouldn't happen unless the compilation environment is buggy,
-      // but it has happened in the past and can crash the compiler.
-      abortWithError("annotation processor for @AutoValue was invoked with a type that "
-          + "does not have that annotation; this is probably a compiler bug", type);
+  private static ExecutableElement appendToMethod(List<ExecutableElement> methods) {
+    for (ExecutableElement method : methods) {
+      if (isAppendToMethod(method)) {
+        return method;
+      }
     }
-    if (type.getKind() != ElementKind.CLASS) {
-      abortWithError("@" + AutoValue.class.getName() + " only applies to classes", type);
+    return null;
+  }
+
+  private static boolean isAppendToMethod(ExecutableElement method) {
+    return method.getSimpleName().contentEquals("appendTo")
+        && method.getParameters().size() == 1
+        && method.getParameters().get(0).asType().toString().equals("java.lang.StringBuilder");
+  }
+
+  // Returns the simple name of the generated subclass of the given property's type, if that type is
+  // an @AutoValue class in the same package whose generated subclass has an appendTo(StringBuilder)
+  // method, or else an empty string. The generated toString() of the containing class can then
+  // append the property's value to its own StringBuilder instead of allocating an intermediate
+  // String. We skip generic types to avoid casting to a raw type.
+  private String appendToClass(ExecutableElement method, String pkg) {
+    TypeMirror returnType = method.getReturnType();
+    if (returnType.getKind() != TypeKind.DECLARED) {
+      return "";
     }
-    if (ancestorIsAutoValue(type)) {
-      abortWithError("One @AutoValue class may not extend another", type);
+    TypeElement propertyType = (TypeElement) ((DeclaredType) returnType).asElement();
+    if (propertyType.getAnnotation(AutoValue.class) == null
+        || !propertyType.getTypeParameters().isEmpty()
+        || !TypeSimplifier.packageNameOf(propertyType).equals(pkg)) {
+      return "";
     }
-    if (implementsAnnotation(type)) {
-      abortWithError("@AutoValue may not be used to implement an annotation interface; "
-          + "try using @AutoAnnotation instead", type);
+    String subclass = generatedSubclassName(propertyType);
+    TypeElement existingSubclass = processingEnv.getElementUtils().getTypeElement(subclass);
+    boolean hasAppendTo;
+    if (existingSubclass == null) {
+      // The subclass is being generated in this compilation, so we can determine whether it will
+      // have the method in the same way as for the class we are generating now.
+      List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+      findLocalAndInheritedMethods(propertyType, methods);
+      AutoValueTemplateVars propertyTypeVars = new AutoValueTemplateVars();
+      determineObjectMethodsToGenerate(methods, propertyTypeVars);
+      ExecutableElement appendTo = appendToMethod(methods);
+      hasAppendTo = propertyTypeVars.toString
+          && (appendTo == null || appendTo.getModifiers().contains(Modifier.ABSTRACT));
+    } else {
+      // The subclass was compiled previously, perhaps by a version of this processor that did not
+      // generate the method, so look for it.
+      hasAppendTo = appendToMethod(
+          ElementFilter.methodsIn(existingSubclass.getEnclosedElements())) != null;
     }
-    AutoValueTemplateVars vars = new AutoValueTemplateVars();
-    vars.pkg = TypeSimplifier.packageNameOf(type);
-    vars.origClass = classNameOf(type);
-    vars.simpleClassName = TypeSimplifier.simpleNameOf(vars.origClass);
-    vars.subclass = TypeSimplifier.simpleNameOf(generatedSubclassName(type));
-    defineVarsForType(type, vars);
-    String text = vars.toText();
-    text = Reformatter.fixup(text);
-    writeSourceFile(generatedSubclassName(type), text, type);
-    GwtSerialization gwtSerialization = new GwtSerialization(processingEnv, type);
-    gwtSerialization.maybeWriteGwtSerializer(vars);
+    return hasAppendTo ? TypeSimplifier.simpleNameOf(subclass) : "";
   }
 
-  private void defineVarsForType(TypeElement type, AutoValueTemplateVars vars) {
-    Types typeUtils = processingEnv.getTypeUtils();
-    List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
-    findLocalAndInheritedMethods(type, methods);
-    determineObjectMethodsToGenerate(methods, vars);
-    ImmutableList<ExecutableElement> toImplement = methodsToImplement(methods);
-    Set<TypeMirror> types = new TypeMirrorSet();
-    types.addAll(returnTypesOf(toImplement));
-    TypeMirror javaxAnnotationGenerated = getTypeMirror(Generated.class);
-    types.add(javaxAnnotationGenerated);
-    TypeMirror javaUtilArrays = getTypeMirror(Arrays.class);
-    if (containsArrayType(types)) {
-      // If there are array properties then we will be referencing java.util.Arrays.
-      // Arrange to import it unless that would introduce ambiguity.
-      types.add(javaUtilArrays);
-    }
-    String pkg = TypeSimplifier.packageNameOf(type);
-    TypeSimplifier typeSimplifier = new TypeSimplifier(typeUtils, pkg, types, type.asType());
-    vars.imports = typeSimplifier.typesToImport();
-    vars.generated = typeSimplifier.simplify(javaxAnnotationGenerated);
-    vars.arrays = typeSimplifier.simplify(javaUtilArrays);
-    Map<ExecutableElement, String> methodToPropertyName = Maps.newLinkedHashMap();
-    boolean allGetters = allGetters(toImplement);
-    for (ExecutableElement method : toImplement) {
-      String methodName = method.getSimpleName().toString();
-      String name = allGetters ? nameWithoutPrefix(methodName) : methodName;
-      methodToPropertyName.put(method, name);
-    }
-    if (allGetters) {
-      checkDuplicateGetters(methodToPropertyName);
+  // An estimate of the length of the string returned by the generated toString(), used to size its
+  // StringBuilder so that it usually does not have to grow.
+  private static int toStringCapacity(String simpleClassName, List<Property> props) {
+    int capacity = simpleClassName.length() + 2;
+    for (Property prop : props) {
+      capacity += prop.getName().length() + 3 + estimatedStringLength(prop.getKind());
     }
-    Map<ExecutableElement, String> methodToIdentifier = Maps.newLinkedHashMap(methodToPropertyName);
-    fixReservedIdentifiers(methodToIdentifier);
-    List<Property> props = new ArrayList<Property>();
-    for (ExecutableElement method : toImplement) {
-      String propertyType = typeSimplifier.simplify(method.getReturnType());
-      String propertyName = methodToPropertyName.get(method);
-      String identifier = methodToIdentifier.get(method);
-      props.add(new Property(propertyName, identifier, method, propertyType, typeSimplifier));
+    return capacity;
+  }
+
+  private static int estimatedStringLength(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return 5;
+      case BYTE:
+        return 4;
+      case SHORT:
+        return 6;
+      case CHAR:
+        return 1;
+      case INT:
+        return 11;
+      case LONG:
+        return 20;
+      case FLOAT:
+        return 15;
+      case DOUBLE:
+        return 24;
+      case ARRAY:
+        return 32;
+      default:
+        return 16;
     }
-    // If we are running from Eclipse, undo the work of its compiler which sorts methods.
-    eclipseHack().reorderProperties(props);
-    vars.props = props;
-    vars.serialVersionUID = getSerialVersionUID(type);
-    vars.formalTypes = typeSimplifier.formalTypeParametersString(type);
-    vars.actualTypes = actualTypeParametersString(type);
-    vars.wildcardTypes = wildcardTypeParametersString(type);
   }
 
   private boolean allGetters(List<ExecutableElement> methods) {
@@ -487,6 +2315,14 @@ public class AutoValueProcessor extends AbstractProcessor {
     }
   }
 
+  // Returns an identifier for a generated field or variable that is based on the given name and
+  // does not clash with any of the given identifiers, and adds it to them.
+  private String newIdentifier(String name, Set<String> identifiers) {
+    String identifier = identifiers.contains(name) ? disambiguate(name, identifiers) : name;
+    identifiers.add(identifier);
+    return identifier;
+  }
+
   private String disambiguate(String name, Collection<String> existingNames) {
     for (int i = 0; ; i++) {
       String candidate = name + i;
@@ -544,18 +2380,28 @@ public class AutoValueProcessor extends AbstractProcessor {
     }
   }
 
-  private ImmutableList<ExecutableElement> methodsToImplement(List<ExecutableElement> methods) {
+  private ImmutableList<ExecutableElement> methodsToImplement(
+      List<ExecutableElement> methods, boolean compareBy, boolean withers, boolean fingerprint) {
     ImmutableList.Builder<ExecutableElement> toImplement = ImmutableList.builder();
     boolean errors = false;
     for (ExecutableElement method : methods) {
       if (method.getModifiers().contains(Modifier.ABSTRACT)
-          && objectMethodToOverride(method) == ObjectMethodToOverride.NONE) {
+          && objectMethodToOverride(method) == ObjectMethodToOverride.NONE
+          && !isAppendToMethod(method)
+          && !(compareBy && isCompareToMethod(method))
+          && !(withers && isWitherMethod(method))
+          && !(fingerprint && isFingerprintMethod(method))) {
         if (method.getParameters().isEmpty() && method.getReturnType().getKind() != TypeKind.VOID) {
           if (isReferenceArrayType(method.getReturnType())) {
             reportError("An @AutoValue class cannot define an array-valued property unless it is "
                 + "a primitive array", method);
             errors = true;
           }
+          if (method.getAnnotation(SharedArray.class) != null
+              && method.getReturnType().getKind() != TypeKind.ARRAY) {
+            reportError("@SharedArray can only be applied to an array-valued property", method);
+            errors = true;
+          }
           toImplement.add(method);
         } else {
           // This could reasonably be an error, were it not for an Eclipse bug in
@@ -573,6 +2419,43 @@ public class AutoValueProcessor extends AbstractProcessor {
     return toImplement.build();
   }
 
+  // Returns the methods of the @AutoValue class that are annotated @Memoized, after checking that
+  // each one is a method that we can override.
+  private ImmutableList<ExecutableElement> methodsToMemoize(TypeElement type) {
+    ImmutableList.Builder<ExecutableElement> toMemoize = ImmutableList.builder();
+    boolean errors = false;
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (method.getAnnotation(Memoized.class) == null) {
+        continue;
+      }
+      Set<Modifier> mods = method.getModifiers();
+      String error = null;
+      if (mods.contains(Modifier.ABSTRACT)) {
+        error = "@Memoized methods cannot be abstract";
+      } else if (mods.contains(Modifier.PRIVATE)) {
+        error = "@Memoized methods cannot be private";
+      } else if (mods.contains(Modifier.STATIC)) {
+        error = "@Memoized methods cannot be static";
+      } else if (mods.contains(Modifier.FINAL)) {
+        error = "@Memoized methods cannot be final";
+      } else if (!method.getParameters().isEmpty()) {
+        error = "@Memoized methods cannot have parameters";
+      } else if (method.getReturnType().getKind() == TypeKind.VOID) {
+        error = "@Memoized methods cannot be void";
+      }
+      if (error == null) {
+        toMemoize.add(method);
+      } else {
+        reportError(error, method);
+        errors = true;
+      }
+    }
+    if (errors) {
+      throw new AbortProcessingException();
+    }
+    return toMemoize.build();
+  }
+
   private static boolean isReferenceArrayType(TypeMirror type) {
     return type.getKind() == TypeKind.ARRAY
         && !((ArrayType) type).getComponentType().getKind().isPrimitive();
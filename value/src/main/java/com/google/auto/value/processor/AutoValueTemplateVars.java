@@ -30,12 +30,131 @@ class AutoValueTemplateVars extends TemplateVars {
   /** The properties defined by the parent class's abstract methods. */
   List<AutoValueProcessor.Property> props;
 
+  /**
+   * The properties that the generated equals(Object) method compares, in the order in which it
+   * should compare them. These are the {@link #hashedProps}, in a different order.
+   */
+  List<AutoValueProcessor.Property> equalsProps;
+
+  /**
+   * The properties that the generated hashCode() method combines, in order. These are the
+   * {@link #props} that are not annotated {@code @ExcludeFromEquals}.
+   */
+  List<AutoValueProcessor.Property> hashedProps;
+
+  /** The properties that the generated toString() method shows, in order. */
+  List<AutoValueProcessor.Property> toStringProps;
+
+  /**
+   * The properties in {@link #equalsProps} that are not packed, meaning that they have their own
+   * fields. The generated equals(Object) method compares the {@link #packedWords} of two instances
+   * of the generated class before these properties.
+   */
+  List<AutoValueProcessor.Property> equalsFieldProps;
+
+  /**
+   * The helper methods that compare {@link #equalsFieldProps} and {@link #equalsProps}, if the
+   * generated equals(Object) method is split because it would be too big to be JIT-compiled;
+   * otherwise empty.
+   */
+  List<AutoValueProcessor.MethodChunk> equalsFieldChunks;
+  List<AutoValueProcessor.MethodChunk> equalsChunks;
+
+  /** The helper methods of a split hashCode() method, or empty if it is not split. */
+  List<AutoValueProcessor.MethodChunk> hashCodeChunks;
+
+  /** The helper methods of a split toString() or appendTo method, or empty if it is not split. */
+  List<AutoValueProcessor.MethodChunk> toStringChunks;
+
+  /**
+   * The fields that hold packed properties, if {@code @AutoValue(packFields = true)}; otherwise
+   * empty.
+   */
+  List<AutoValueProcessor.PackedWord> packedWords;
+
+  /** The methods of the parent class that are annotated {@code @Memoized}. */
+  List<AutoValueProcessor.MemoizedMethod> memoizedMethods;
+
   /** Whether to generate an equals(Object) method. */
   Boolean equals;
   /** Whether to generate a hashCode() method. */
   Boolean hashCode;
   /** Whether to generate a toString() method. */
   Boolean toString;
+  /** Whether to generate an appendTo(StringBuilder) method, used by toString(). */
+  Boolean appendTo;
+  /** Whether the appendTo(StringBuilder) method implements an abstract method. */
+  Boolean appendToOverride;
+  /** The initial capacity of the StringBuilder used by toString(). */
+  Integer toStringCapacity;
+  /** The most elements that toString() shows for each array, collection or map, or 0 for all. */
+  Integer toStringElementLimit;
+  /** The helper methods that append each needed type of primitive array with that limit. */
+  List<AutoValueProcessor.BoundedArray> boundedArrays;
+  /** Whether the helper methods that append a collection or a map with that limit are needed. */
+  Boolean boundedCollections;
+  Boolean boundedMaps;
+
+  /** Whether the generated hashCode() method should cache its result in a field. */
+  Boolean cacheHashCode;
+  /** The name of the field that caches the hash code, if {@link #cacheHashCode} is true. */
+  String hashCodeField;
+  /** Whether the generated hashCode() method mixes its result with a finalization step. */
+  Boolean hashMix;
+  /** The name of the static field that holds a random hash seed, or empty if there is none. */
+  String hashSeed;
+  /** The initial value of the hash code: 1, or the name of the seed field. */
+  String hashInit;
+  /** The spelling of the java.util.Random class: Random or java.util.Random. */
+  String random;
+
+  /** Whether to generate a static intern method that returns canonical instances. */
+  Boolean intern;
+  /**
+   * The maximum number of canonical instances to retain, or 0 if canonical instances are weakly
+   * referenced.
+   */
+  Integer internMaximumSize;
+  /** The name of the static field that holds the canonical instances. */
+  String internedField;
+
+  /** Whether to generate static hashOf and matches methods that take property values. */
+  Boolean lookupMethods;
+  /** The name of the local variable in hashOf that accumulates the hash code. */
+  String lookupHash;
+  /** The name of the parameter of matches that is the instance being compared. */
+  String lookupInstance;
+
+  /** The properties named by {@code @AutoValue(compareBy = ...)}, in that order. */
+  List<AutoValueProcessor.ComparedProperty> comparedProps;
+  /** The static methods that compare primitive arrays for {@link #comparedProps}. */
+  List<AutoValueProcessor.ArrayComparison> arrayComparisons;
+  /** The name of the static Comparator field, if {@link #comparedProps} is not empty. */
+  String comparatorField;
+  /** The spelling of the java.util.Comparator class: Comparator or java.util.Comparator. */
+  String comparator;
+  /** Whether to implement an abstract compareTo method inherited from Comparable. */
+  Boolean compareTo;
+
+  /** The withFoo methods to generate, one for each property that does not already have one. */
+  List<AutoValueProcessor.Wither> withers;
+
+  /** The properties in the order that they are fed to the fingerprint, if there is one. */
+  List<AutoValueProcessor.FingerprintedProperty> fingerprintedProps;
+  /** The helper methods that feed each needed type of primitive array to the fingerprint. */
+  List<AutoValueProcessor.FingerprintArray> fingerprintArrays;
+  /** Whether to generate the private methods that compute the fingerprint. */
+  Boolean fingerprint;
+  /** Whether the helper method that feeds a string to the fingerprint is needed. */
+  Boolean fingerprintStrings;
+  /** Whether the helper method that feeds the fingerprint of a nested value is needed. */
+  Boolean fingerprintNested;
+  /** Whether to generate fingerprint64(), and whether it implements an abstract method. */
+  Boolean fingerprint64;
+  Boolean fingerprint64Override;
+  /** Whether to generate fingerprint128(), and whether it implements an abstract method. */
+  Boolean fingerprint128;
+  Boolean fingerprint128Override;
 
   /** The fully-qualified names of the classes to be imported in the generated class. */
   SortedSet<String> imports;
@@ -48,9 +167,41 @@ class AutoValueTemplateVars extends TemplateVars {
   /** The spelling of the java.util.Arrays class: Arrays or java.util.Arrays. */
   String arrays;
 
+  /** The spelling of the java.util.Collection class: Collection or java.util.Collection. */
+  String collection;
+
+  /** The spelling of the java.util.Map class: Map or java.util.Map. */
+  String map;
+  /** The spelling of the java.util.LinkedHashMap class. */
+  String linkedHashMap;
+  /** The spelling of the java.util.WeakHashMap class. */
+  String weakHashMap;
+  /** The spelling of the java.lang.ref.WeakReference class. */
+  String weakReference;
+
   /** The text of the serialVersionUID constant, or empty if there is none. */
   String serialVersionUID;
 
+  /** Whether to serialize through a compact serialization proxy. */
+  Boolean serializationProxy;
+  /** Whether reading the properties in the serialization proxy requires an unchecked cast. */
+  Boolean serializationProxyUncheckedCast;
+  /** The text of the serialVersionUID constant of the serialization proxy. */
+  String serializationProxyVersionUID;
+
+  /** The spelling of the java.io.Externalizable class. */
+  String externalizable;
+  /** The spelling of the java.io.ObjectInput class. */
+  String objectInput;
+  /** The spelling of the java.io.ObjectOutput class. */
+  String objectOutput;
+  /** The spelling of the java.io.ObjectInputStream class. */
+  String objectInputStream;
+  /** The spelling of the java.io.IOException class. */
+  String ioException;
+  /** The spelling of the java.io.InvalidObjectException class. */
+  String invalidObjectException;
+
   /**
    * The package of the class with the {@code @AutoValue} annotation and its generated subclass.
    */
@@ -83,7 +234,8 @@ class AutoValueTemplateVars extends TemplateVars {
    */
   String wildcardTypes;
 
-  private static final SimpleNode TEMPLATE = parsedTemplateForResource("autovalue.vm");
+  private static final SimpleNode TEMPLATE =
+      parsedTemplateForResource("autovalue.vm", "hashcode.vm");
 
   @Override
   SimpleNode parsedTemplate() {
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a binary codec for {@code @AutoValue} classes marked {@code @AutoValue(binaryCodec =
+ * true)}.
+ *
+ * <p>If the type is com.example.Foo then the generated AutoValue subclass is
+ * com.example.AutoValue_Foo and the codec is com.example.AutoValue_Foo_BinaryCodec. The codec
+ * reads and writes each property directly from or to a {@link java.nio.ByteBuffer}, in the order
+ * of the properties, without reflection and without any intermediate byte arrays. Array
+ * properties of AutoValue_Foo are read from their fields, so they are not copied either.
+ */
+class BinaryCodecGeneration extends CompanionGeneration {
+  BinaryCodecGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    super(processingEnv, type);
+  }
+
+  /**
+   * Writes the binary codec for the given type, if it is annotated
+   * {@code @AutoValue(binaryCodec = true)}. If any property has a type that the codec cannot
+   * handle, reports an error instead.
+   *
+   * @param autoVars the template variables defined for this type.
+   */
+  void maybeWriteBinaryCodec(AutoValueTemplateVars autoVars) {
+    if (!type.getAnnotation(AutoValue.class).binaryCodec()) {
+      return;
+    }
+    BinaryCodecTemplateVars vars = new BinaryCodecTemplateVars();
+    vars.copyCommonVars(autoVars);
+    String className = companionClassName(autoVars, "_BinaryCodec");
+    vars.codecClass = TypeSimplifier.simpleNameOf(className);
+
+    Set<String> identifiers = new HashSet<String>();
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      identifiers.add(prop.toString());
+    }
+    vars.value = newIdentifier("value", identifiers);
+    vars.buffer = newIdentifier("buffer", identifiers);
+    vars.size = newIdentifier("size", identifiers);
+
+    boolean errors = false;
+    int fixedSize = 0;
+    TreeMap<String, ArrayHelper> arrayHelpers = new TreeMap<String, ArrayHelper>();
+    vars.props = new ArrayList<Property>();
+    vars.usesStrings = false;
+    vars.usesEnums = false;
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      Property codecProp = codecProperty(prop);
+      if (codecProp == null) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "@AutoValue(binaryCodec = true) does not support properties of type "
+                + prop.getTypeMirror(),
+            prop.getMethod());
+        errors = true;
+        continue;
+      }
+      codecProp.readWith(prop.readFromCompanion(vars.value, vars.subclass, vars.wildcardTypes));
+      vars.props.add(codecProp);
+      if (prop.isNullable()) {
+        fixedSize++;
+      } else if (!codecProp.isVariableSize()) {
+        fixedSize += codecProp.fixedSize;
+      }
+      if (codecProp.encoding == Encoding.STRING) {
+        vars.usesStrings = true;
+      } else if (codecProp.encoding == Encoding.ENUM) {
+        vars.usesEnums = true;
+      } else if (codecProp.encoding == Encoding.ARRAY) {
+        arrayHelpers.put(codecProp.arrayHelper.toString(), codecProp.arrayHelper);
+      }
+    }
+    if (errors) {
+      return;
+    }
+    vars.fixedSize = fixedSize;
+    vars.arrayHelpers = new ArrayList<ArrayHelper>(arrayHelpers.values());
+    writeSourceFile(className, vars);
+  }
+
+  // Returns a Property describing how to encode the given property, or null if its type is not
+  // supported.
+  private Property codecProperty(AutoValueProcessor.Property prop) {
+    TypeMirror propType = prop.getTypeMirror();
+    TypeKind kind = propType.getKind();
+    if (kind.isPrimitive()) {
+      Encoding encoding = (kind == TypeKind.BOOLEAN) ? Encoding.BOOLEAN : Encoding.PRIMITIVE;
+      return new Property(prop, encoding, kind, null, "");
+    } else if (kind == TypeKind.ARRAY) {
+      TypeKind elementKind = ((ArrayType) propType).getComponentType().getKind();
+      if (!elementKind.isPrimitive()) {
+        return null;
+      }
+      return new Property(prop, Encoding.ARRAY, elementKind, new ArrayHelper(elementKind), "");
+    } else if (kind == TypeKind.DECLARED) {
+      TypeElement element = (TypeElement) ((DeclaredType) propType).asElement();
+      if (element.getQualifiedName().contentEquals("java.lang.String")) {
+        return new Property(prop, Encoding.STRING, kind, null, "");
+      } else if (element.getKind() == ElementKind.ENUM) {
+        return new Property(prop, Encoding.ENUM, kind, null, "");
+      }
+      AutoValue autoValue = element.getAnnotation(AutoValue.class);
+      if (autoValue != null && autoValue.binaryCodec()
+          && element.getTypeParameters().isEmpty()) {
+        String codec = AutoValueProcessor.generatedClassName(element, "AutoValue_")
+            + "_BinaryCodec";
+        String codecPkg = TypeSimplifier.packageNameOf(element);
+        if (codecPkg.equals(TypeSimplifier.packageNameOf(type))) {
+          codec = TypeSimplifier.simpleNameOf(codec);
+        }
+        return new Property(prop, Encoding.NESTED, kind, null, codec);
+      }
+    }
+    return null;
+  }
+
+  /** How the value of a property is represented in the encoded form. */
+  enum Encoding {
+    /** A byte that is 0 for false and 1 for true. */
+    BOOLEAN,
+    /** A primitive value other than boolean, with its natural width. */
+    PRIMITIVE,
+    /** An int ordinal. */
+    ENUM,
+    /** An int length followed by that many chars. */
+    STRING,
+    /** An int length followed by that many primitive elements. */
+    ARRAY,
+    /** The encoded form of another {@code @AutoValue} class, written by its own codec. */
+    NESTED,
+  }
+
+  // The number of bytes that ByteBuffer uses for a value of the given primitive kind.
+  static int width(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+      case BYTE:
+        return 1;
+      case SHORT:
+      case CHAR:
+        return 2;
+      case INT:
+      case FLOAT:
+        return 4;
+      case LONG:
+      case DOUBLE:
+        return 8;
+      default:
+        throw new IllegalArgumentException(kind.toString());
+    }
+  }
+
+  // The suffix of the ByteBuffer methods that read and write values of the given primitive kind,
+  // for example "Int" for getInt and putInt. The methods for bytes are just get and put, and
+  // booleans are written as bytes.
+  static String bufferSuffix(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+      case BYTE:
+        return "";
+      default:
+        String name = kind.name();
+        return name.charAt(0) + name.substring(1).toLowerCase(Locale.ENGLISH);
+    }
+  }
+
+  /**
+   * The helper methods that the generated codec uses to read and write arrays with a given
+   * primitive element type. The string form of an instance is the suffix of the method names, for
+   * example {@code IntArray} for {@code putIntArray} and {@code getIntArray}.
+   */
+  public static class ArrayHelper {
+    private final TypeKind elementKind;
+
+    ArrayHelper(TypeKind elementKind) {
+      this.elementKind = elementKind;
+    }
+
+    @Override public String toString() {
+      String name = elementKind.name();
+      return name.charAt(0) + name.substring(1).toLowerCase(Locale.ENGLISH) + "Array";
+    }
+
+    public String getElementType() {
+      return elementKind.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    public TypeKind getElementKind() {
+      return elementKind;
+    }
+
+    public String getBufferSuffix() {
+      return bufferSuffix(elementKind);
+    }
+
+    /** Returns the encoded size of each element. */
+    public int getElementWidth() {
+      return width(elementKind);
+    }
+  }
+
+  public static class Property {
+    private final AutoValueProcessor.Property property;
+    private final Encoding encoding;
+    private final int fixedSize;
+    private final String bufferSuffix;
+    private final ArrayHelper arrayHelper;
+    private final String codec;
+    private String read;
+
+    Property(
+        AutoValueProcessor.Property property,
+        Encoding encoding,
+        TypeKind kind,
+        ArrayHelper arrayHelper,
+        String codec) {
+      this.property = property;
+      this.encoding = encoding;
+      this.arrayHelper = arrayHelper;
+      this.codec = codec;
+      switch (encoding) {
+        case BOOLEAN:
+        case PRIMITIVE:
+          this.fixedSize = width(kind);
+          this.bufferSuffix = bufferSuffix(kind);
+          break;
+        case ENUM:
+          this.fixedSize = 4;
+          this.bufferSuffix = "";
+          break;
+        default:
+          this.fixedSize = 0;
+          this.bufferSuffix = "";
+          break;
+      }
+    }
+
+    @Override public String toString() {
+      return property.toString();
+    }
+
+    public String getType() {
+      return property.getType();
+    }
+
+    public boolean isNullable() {
+      return property.isNullable();
+    }
+
+    /** Records the expression that reads this property from the value being encoded. */
+    void readWith(String read) {
+      this.read = read;
+    }
+
+    /**
+     * Returns an expression for the value of this property in the value being encoded. For an
+     * array property of the generated subclass this calls the static accessor of the array, since
+     * the getter would copy the array.
+     */
+    public String getRead() {
+      return read;
+    }
+
+    public String getEncoding() {
+      return encoding.name();
+    }
+
+    /**
+     * Returns true if the encoded size of this property depends on its value. That is the case for
+     * strings, arrays, and nested values, and also for {@code @Nullable} properties since a null
+     * value is encoded as a single byte.
+     */
+    public boolean isVariableSize() {
+      return property.isNullable()
+          || encoding == Encoding.STRING
+          || encoding == Encoding.ARRAY
+          || encoding == Encoding.NESTED;
+    }
+
+    /** Returns the encoded size of an enum property, or of a non-null primitive property. */
+    public int getFixedSize() {
+      return fixedSize;
+    }
+
+    /** Returns the suffix of the ByteBuffer methods for a primitive property, such as "Int". */
+    public String getBufferSuffix() {
+      return bufferSuffix;
+    }
+
+    /** Returns the helper methods used for an array property. */
+    public ArrayHelper getArrayHelper() {
+      return arrayHelper;
+    }
+
+    /** Returns the name of the codec class used for a nested {@code @AutoValue} property. */
+    public String getCodec() {
+      return codec;
+    }
+  }
+
+  @SuppressWarnings("unused")  // some fields are only read through reflection
+  static class BinaryCodecTemplateVars extends CompanionTemplateVars {
+    /** The properties defined by the parent class's abstract methods. */
+    List<Property> props;
+
+    /** The helper methods needed to read and write the array properties. */
+    List<ArrayHelper> arrayHelpers;
+
+    /** Whether the helper methods to read and write strings are needed. */
+    Boolean usesStrings;
+
+    /** Whether the helper method to read and check an enum ordinal is needed. */
+    Boolean usesEnums;
+
+    /** The encoded size of the properties whose size does not depend on their values. */
+    Integer fixedSize;
+
+    /** The simple name of the generated codec class. */
+    String codecClass;
+
+    /**
+     * The names of the parameters and local variables of the generated methods, chosen so as not
+     * to clash with the local variables named after properties.
+     */
+    String value;
+    String buffer;
+    String size;
+
+    private static final SimpleNode TEMPLATE = parsedTemplateForResource("binarycodec.vm");
+
+    @Override
+    SimpleNode parsedTemplate() {
+      return TEMPLATE;
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+
+/**
+ * Generates a builder class for {@code @AutoValue} classes marked {@code @AutoValue(builder =
+ * true)}.
+ *
+ * <p>If the type is com.example.Foo then the generated AutoValue subclass is
+ * com.example.AutoValue_Foo and the builder is com.example.AutoValue_Foo_Builder. The builder
+ * has a field for each property with exactly the type of the property, so primitive values are
+ * not boxed. Which of the properties that must be set have been set is recorded in one bit per
+ * property, packed into {@code long} fields, so that {@code build()} can check them cheaply and
+ * {@code reset()} can clear them to allow the builder to be reused.
+ */
+class BuilderGeneration extends CompanionGeneration {
+  BuilderGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    super(processingEnv, type);
+  }
+
+  /**
+   * Writes the builder for the given type, if it is annotated {@code @AutoValue(builder = true)}.
+   *
+   * @param autoVars the template variables defined for this type.
+   */
+  void maybeWriteBuilder(AutoValueTemplateVars autoVars) {
+    if (!type.getAnnotation(AutoValue.class).builder()) {
+      return;
+    }
+    BuilderTemplateVars vars = new BuilderTemplateVars();
+    vars.copyCommonVars(autoVars);
+    String className = companionClassName(autoVars, "_Builder");
+    vars.builderClass = TypeSimplifier.simpleNameOf(className);
+
+    Set<String> identifiers = new HashSet<String>();
+    int required = 0;
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      identifiers.add(prop.toString());
+      if (isRequired(prop)) {
+        required++;
+      }
+    }
+    String wordPrefix = "set";
+    while (clashes(wordPrefix, (required + 63) / 64, identifiers)) {
+      wordPrefix += "_";
+    }
+
+    vars.props = new ArrayList<Property>();
+    vars.words = new ArrayList<Word>();
+    int bit = 0;
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      if (isRequired(prop)) {
+        int wordIndex = bit / 64;
+        if (wordIndex == vars.words.size()) {
+          vars.words.add(new Word(wordPrefix + wordIndex));
+        }
+        Word word = vars.words.get(wordIndex);
+        long mask = 1L << (bit % 64);
+        word.requiredMask |= mask;
+        vars.props.add(new Property(prop, word.name, mask));
+        bit++;
+      } else {
+        vars.props.add(new Property(prop, "", 0));
+      }
+    }
+    writeSourceFile(className, vars);
+  }
+
+  // A property must be set before build() unless it is @Nullable, in which case it defaults to
+  // null. Primitive properties must be set too, rather than silently defaulting to 0.
+  private static boolean isRequired(AutoValueProcessor.Property prop) {
+    return prop.getKind().isPrimitive() || !prop.isNullable();
+  }
+
+  private static boolean clashes(String prefix, int count, Set<String> identifiers) {
+    for (int i = 0; i < count; i++) {
+      if (identifiers.contains(prefix + i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String hexLiteral(long value) {
+    return "0x" + Long.toHexString(value) + "L";
+  }
+
+  /**
+   * One of the {@code long} fields of the builder that record which required properties have
+   * been set.
+   */
+  public static class Word {
+    private final String name;
+    private long requiredMask;
+
+    Word(String name) {
+      this.name = name;
+    }
+
+    /** Returns the name of the field. */
+    @Override public String toString() {
+      return name;
+    }
+
+    /** Returns the value the field has once every required property that it covers is set. */
+    public String getRequiredMask() {
+      return hexLiteral(requiredMask);
+    }
+  }
+
+  public static class Property {
+    private final AutoValueProcessor.Property property;
+    private final String word;
+    private final long mask;
+
+    Property(AutoValueProcessor.Property property, String word, long mask) {
+      this.property = property;
+      this.word = word;
+      this.mask = mask;
+    }
+
+    @Override public String toString() {
+      return property.toString();
+    }
+
+    public String getName() {
+      return property.getName();
+    }
+
+    public String getType() {
+      return property.getType();
+    }
+
+    /**
+     * Returns the name of the field that records whether this property has been set, or an empty
+     * string if the property is optional and so is not recorded.
+     */
+    public String getWord() {
+      return word;
+    }
+
+    /** Returns the bit within {@link #getWord()} that records whether this property is set. */
+    public String getMask() {
+      return hexLiteral(mask);
+    }
+
+    /**
+     * Returns true if {@code build()} must copy this property, because it is an array that the
+     * builder does not own exclusively.
+     */
+    public boolean isCopiedArray() {
+      return property.isCopiedArray();
+    }
+
+    /** Returns the value of the builder field for this property before it has been set. */
+    public String getDefaultValue() {
+      TypeKind kind = property.getKind();
+      if (kind == TypeKind.BOOLEAN) {
+        return "false";
+      } else if (kind.isPrimitive()) {
+        return "0";
+      } else {
+        return "null";
+      }
+    }
+  }
+
+  @SuppressWarnings("unused")  // some fields are only read through reflection
+  static class BuilderTemplateVars extends CompanionTemplateVars {
+    /** The properties defined by the parent class's abstract methods. */
+    List<Property> props;
+
+    /** The fields that record which required properties have been set. */
+    List<Word> words;
+
+    /** The simple name of the generated builder class. */
+    String builderClass;
+
+    private static final SimpleNode TEMPLATE = parsedTemplateForResource("builder.vm");
+
+    @Override
+    SimpleNode parsedTemplate() {
+      return TEMPLATE;
+    }
+  }
+}
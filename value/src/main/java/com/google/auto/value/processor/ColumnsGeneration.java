@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+
+/**
+ * Generates a columnar collection for {@code @AutoValue} classes marked
+ * {@code @AutoValue(columns = true)}.
+ *
+ * <p>If the type is com.example.Foo then the generated AutoValue subclass is
+ * com.example.AutoValue_Foo and the collection is com.example.AutoValue_Foo_Columns. The
+ * collection stores the values of each property in an array of its own, so a loop that only looks
+ * at one property reads consecutive elements of one array, and primitive properties are stored
+ * without boxing. Instances of AutoValue_Foo are only created when an element is retrieved.
+ */
+class ColumnsGeneration extends CompanionGeneration {
+  ColumnsGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    super(processingEnv, type);
+  }
+
+  /**
+   * Writes the columnar collection for the given type, if it is annotated
+   * {@code @AutoValue(columns = true)}.
+   *
+   * @param autoVars the template variables defined for this type.
+   */
+  void maybeWriteColumns(AutoValueTemplateVars autoVars) {
+    if (!type.getAnnotation(AutoValue.class).columns()) {
+      return;
+    }
+    ColumnsTemplateVars vars = new ColumnsTemplateVars();
+    vars.copyCommonVars(autoVars);
+    vars.arrays = autoVars.arrays;
+    String className = companionClassName(autoVars, "_Columns");
+    vars.columnsClass = TypeSimplifier.simpleNameOf(className);
+
+    Set<String> identifiers = new HashSet<String>();
+    vars.props = new ArrayList<Property>();
+    boolean uncheckedCast = false;
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      identifiers.add(prop.toString());
+      boolean erased = TypeSimplifier.isCastingUnchecked(prop.getTypeMirror());
+      uncheckedCast |= erased;
+      vars.props.add(new Property(prop, erased));
+    }
+    vars.uncheckedCast = uncheckedCast;
+    vars.size = newIdentifier("size", identifiers);
+    writeSourceFile(className, vars);
+  }
+
+  /**
+   * A property as it is stored in a column. The column is an array of the property's type, except
+   * that if the property's type cannot be the element type of an array, for example because it is
+   * a type variable or a parameterized type like {@code List<String>}, the column is an
+   * {@code Object[]}. This class is also used by {@link ToLongMapGeneration}, which stores keys in
+   * columns.
+   */
+  public static class Property {
+    private final AutoValueProcessor.Property property;
+    private final boolean erased;
+
+    Property(AutoValueProcessor.Property property, boolean erased) {
+      this.property = property;
+      this.erased = erased;
+    }
+
+    /** Returns the name of the field that holds the column. */
+    @Override public String toString() {
+      return property.toString();
+    }
+
+    public String getName() {
+      return property.getName();
+    }
+
+    public String getGetter() {
+      return property.getGetter();
+    }
+
+    public String getType() {
+      return property.getType();
+    }
+
+    public TypeKind getKind() {
+      return property.getKind();
+    }
+
+    public boolean isPrimitive() {
+      return property.getKind().isPrimitive();
+    }
+
+    public boolean isEnum() {
+      return property.isEnum();
+    }
+
+    public boolean isNullable() {
+      return property.isNullable();
+    }
+
+    /** Returns the element type of the column, which is the property type or {@code Object}. */
+    public String getElementType() {
+      return erased ? "Object" : property.getType();
+    }
+
+    /**
+     * Returns an expression that creates a column of the given length. This is usually
+     * {@code new Foo[length]}, but if the property is itself an array of type {@code int[]} it is
+     * {@code new int[length][]}.
+     */
+    public String newColumn(String length) {
+      String elementType = getElementType();
+      int bracket = elementType.indexOf('[');
+      if (bracket < 0) {
+        return "new " + elementType + "[" + length + "]";
+      }
+      return "new " + elementType.substring(0, bracket) + "[" + length + "]"
+          + elementType.substring(bracket);
+    }
+
+    /** Returns true if elements of the column must be cast to the property type. */
+    public boolean isErased() {
+      return erased;
+    }
+
+    /**
+     * Returns the name of the public method that returns the column, for example
+     * {@code fooColumn} for property {@code foo}.
+     */
+    public String getColumnMethod() {
+      return property + "Column";
+    }
+  }
+
+  @SuppressWarnings("unused")  // some fields are only read through reflection
+  static class ColumnsTemplateVars extends CompanionTemplateVars {
+    /** The properties defined by the parent class's abstract methods. */
+    List<Property> props;
+
+    /** Whether reading a value from some column requires an unchecked cast. */
+    Boolean uncheckedCast;
+
+    /** The name of the field that holds the number of elements. */
+    String size;
+
+    /** The simple name of the generated columnar collection class. */
+    String columnsClass;
+
+    /** The spelling of the java.util.Arrays class: Arrays or java.util.Arrays. */
+    String arrays;
+
+    private static final SimpleNode TEMPLATE = parsedTemplateForResource("columns.vm");
+
+    @Override
+    SimpleNode parsedTemplate() {
+      return TEMPLATE;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.SortedSet;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * The part that is common to the generators of the companion classes of an {@code @AutoValue}
+ * class, such as AutoValue_Foo_Builder or AutoValue_Foo_Mutable, each of which is requested by a
+ * parameter of the {@code @AutoValue} annotation.
+ */
+abstract class CompanionGeneration {
+  final ProcessingEnvironment processingEnv;
+  final TypeElement type;
+
+  CompanionGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    this.processingEnv = processingEnv;
+    this.type = type;
+  }
+
+  /**
+   * Returns the fully-qualified name of the companion class with the given suffix. If the type is
+   * com.example.Foo and the suffix is {@code _Builder}, this is com.example.AutoValue_Foo_Builder.
+   */
+  static String companionClassName(AutoValueTemplateVars autoVars, String suffix) {
+    return (autoVars.pkg.isEmpty() ? "" : autoVars.pkg + ".") + autoVars.subclass + suffix;
+  }
+
+  /**
+   * Returns {@code name}, or {@code name} followed by a number if that is already one of the
+   * {@code identifiers}, and adds the result to them.
+   */
+  static String newIdentifier(String name, Set<String> identifiers) {
+    String identifier = name;
+    for (int i = 0; identifiers.contains(identifier); i++) {
+      identifier = name + i;
+    }
+    identifiers.add(identifier);
+    return identifier;
+  }
+
+  /**
+   * Substitutes the given variables into their template and writes the result as the source of
+   * the class with the given fully-qualified name.
+   */
+  void writeSourceFile(String className, TemplateVars vars) {
+    String text = Reformatter.fixup(vars.toText());
+    try {
+      JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(className, type);
+      Writer writer = sourceFile.openWriter();
+      try {
+        writer.write(text);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Could not write generated class " + className + ": " + e);
+    }
+  }
+
+  /**
+   * The template variables that every companion class has, with the same values as the variables
+   * of the same names in {@link AutoValueTemplateVars}.
+   */
+  abstract static class CompanionTemplateVars extends TemplateVars {
+    /** The fully-qualified names of the classes to be imported in the generated class. */
+    SortedSet<String> imports;
+
+    /**
+     * The package of the class with the {@code @AutoValue} annotation and its generated subclass.
+     */
+    String pkg;
+
+    /**
+     * The name of the class with the {@code @AutoValue} annotation, including containing
+     * classes but not including the package name.
+     */
+    String origClass;
+
+    /** The simple name of the generated subclass. */
+    String subclass;
+
+    /**
+     * The spelling of the javax.annotation.Generated class: Generated or
+     * javax.annotation.Generated.
+     */
+    String generated;
+
+    /** The formal generic signature of the {@code @AutoValue} class, for example {@code <K, V>}. */
+    String formalTypes;
+
+    /** The generic signature used to reference the {@code @AutoValue} class and its subclass. */
+    String actualTypes;
+
+    /** The generic signature with every type variable replaced by a wildcard. */
+    String wildcardTypes;
+
+    /** Sets the variables above from those of the AutoValue_Foo class. */
+    void copyCommonVars(AutoValueTemplateVars autoVars) {
+      this.imports = autoVars.imports;
+      this.pkg = autoVars.pkg;
+      this.origClass = autoVars.origClass;
+      this.subclass = autoVars.subclass;
+      this.generated = autoVars.generated;
+      this.formalTypes = autoVars.formalTypes;
+      this.actualTypes = autoVars.actualTypes;
+      this.wildcardTypes = autoVars.wildcardTypes;
+    }
+  }
+}
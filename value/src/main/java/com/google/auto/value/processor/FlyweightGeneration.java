@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Joiner;
+
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a flyweight class for {@code @AutoValue} classes marked
+ * {@code @AutoValue(flyweight = true)}.
+ *
+ * <p>If the type is com.example.Foo then the generated AutoValue subclass is
+ * com.example.AutoValue_Foo and the flyweight is com.example.AutoValue_Foo_Flyweight. The flyweight
+ * is another subclass of Foo, whose getters read the properties of a fixed-size record at some
+ * offset in a {@link java.nio.ByteBuffer}. A single flyweight can be moved from one record to
+ * another, so a buffer of many records can be read without allocating an object for each of them.
+ */
+class FlyweightGeneration extends CompanionGeneration {
+  FlyweightGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    super(processingEnv, type);
+  }
+
+  /**
+   * Writes the flyweight class for the given type, if it is annotated
+   * {@code @AutoValue(flyweight = true)}. If any property is not a primitive or an enum, or is
+   * {@code @Nullable}, or if the type has an abstract {@code compareTo}, wither or fingerprint
+   * method, reports an error instead.
+   *
+   * @param autoVars the template variables defined for this type.
+   */
+  void maybeWriteFlyweight(AutoValueTemplateVars autoVars) {
+    if (!type.getAnnotation(AutoValue.class).flyweight()) {
+      return;
+    }
+    FlyweightTemplateVars vars = new FlyweightTemplateVars();
+    vars.copyCommonVars(autoVars);
+    vars.simpleClassName = autoVars.simpleClassName;
+    vars.equals = autoVars.equals;
+    vars.hashCode = autoVars.hashCode;
+    vars.hashMix = autoVars.hashMix;
+    vars.hashInit = autoVars.hashSeed.isEmpty()
+        ? autoVars.hashInit
+        : autoVars.subclass + "." + autoVars.hashSeed;
+    vars.toString = autoVars.toString;
+    vars.appendTo = autoVars.appendTo;
+    vars.appendToOverride = autoVars.appendToOverride;
+    vars.toStringCapacity = autoVars.toStringCapacity;
+    String className = companionClassName(autoVars, "_Flyweight");
+    vars.flyweightClass = TypeSimplifier.simpleNameOf(className);
+
+    boolean errors = false;
+    // The flyweight is a subclass of the @AutoValue class, so it would have to implement the
+    // abstract methods that the AutoValue subclass implements for compareBy, withers and
+    // fingerprint. It does not, since it has no fields to compare, copy or fingerprint.
+    List<String> unsupportedMethods = new ArrayList<String>();
+    if (autoVars.compareTo) {
+      unsupportedMethods.add("compareTo");
+    }
+    for (AutoValueProcessor.Wither wither : autoVars.withers) {
+      if (wither.isOverride()) {
+        unsupportedMethods.add(wither.toString());
+      }
+    }
+    if (autoVars.fingerprint64Override) {
+      unsupportedMethods.add("fingerprint64");
+    }
+    if (autoVars.fingerprint128Override) {
+      unsupportedMethods.add("fingerprint128");
+    }
+    if (!unsupportedMethods.isEmpty()) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "@AutoValue(flyweight = true) cannot implement the abstract method"
+              + (unsupportedMethods.size() == 1 ? " " : "s ")
+              + Joiner.on(", ").join(unsupportedMethods),
+          type);
+      errors = true;
+    }
+    int offset = 0;
+    vars.props = new ArrayList<Property>();
+    vars.hashedProps = new ArrayList<Property>();
+    vars.toStringProps = new ArrayList<Property>();
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      TypeKind kind = prop.getKind();
+      if (prop.isNullable() || !(kind.isPrimitive() || prop.isEnum())) {
+        String problem = prop.isNullable()
+            ? "@Nullable properties"
+            : "properties of type " + prop.getTypeMirror();
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "@AutoValue(flyweight = true) does not support " + problem, prop.getMethod());
+        errors = true;
+        continue;
+      }
+      Property flyweightProp = new Property(prop, offset);
+      vars.props.add(flyweightProp);
+      if (!prop.isExcludedFromEquals()) {
+        vars.hashedProps.add(flyweightProp);
+      }
+      if (!prop.isExcludedFromToString()) {
+        vars.toStringProps.add(flyweightProp);
+      }
+      offset += flyweightProp.getWidth();
+    }
+    if (errors) {
+      return;
+    }
+    vars.recordSize = offset;
+    writeSourceFile(className, vars);
+  }
+
+  /**
+   * A property as it is laid out in a record. Primitive values have their natural width, except
+   * that booleans are a byte that is 0 for false and 1 for true, and enums are an {@code int}
+   * ordinal.
+   */
+  public static class Property {
+    private final AutoValueProcessor.Property property;
+    private final int offset;
+
+    Property(AutoValueProcessor.Property property, int offset) {
+      this.property = property;
+      this.offset = offset;
+    }
+
+    @Override public String toString() {
+      return property.toString();
+    }
+
+    public String getName() {
+      return property.getName();
+    }
+
+    public String getGetter() {
+      return property.getGetter();
+    }
+
+    public String getType() {
+      return property.getType();
+    }
+
+    public TypeKind getKind() {
+      return property.getKind();
+    }
+
+    public boolean isEnum() {
+      return property.isEnum();
+    }
+
+    public boolean isRedacted() {
+      return property.isRedacted();
+    }
+
+    public List<String> getAnnotations() {
+      return property.getAnnotations();
+    }
+
+    public String getAccess() {
+      return property.getAccess();
+    }
+
+    /** Returns the offset of this property within a record. */
+    public int getOffset() {
+      return offset;
+    }
+
+    /**
+     * Returns the expression for the position of this property in the buffer, given that the
+     * record is at {@code offset}.
+     */
+    public String getPosition() {
+      return (offset == 0) ? "offset" : "offset + " + offset;
+    }
+
+    /** Returns the number of bytes that this property occupies in a record. */
+    public int getWidth() {
+      return isEnum() ? 4 : BinaryCodecGeneration.width(getKind());
+    }
+
+    /**
+     * Returns the suffix of the ByteBuffer methods that read and write this property, such as
+     * "Int".
+     */
+    public String getBufferSuffix() {
+      return isEnum() ? "Int" : BinaryCodecGeneration.bufferSuffix(getKind());
+    }
+  }
+
+  @SuppressWarnings("unused")  // some fields are only read through reflection
+  static class FlyweightTemplateVars extends CompanionTemplateVars {
+    /** The properties defined by the parent class's abstract methods. */
+    List<Property> props;
+    /** The properties that equals(Object) and hashCode() use, as in AutoValue_Foo. */
+    List<Property> hashedProps;
+    /** The properties that toString() shows, as in AutoValue_Foo. */
+    List<Property> toStringProps;
+
+    /** The number of bytes in each record. */
+    Integer recordSize;
+
+    /** Whether to generate an equals(Object) method. */
+    Boolean equals;
+    /** Whether to generate a hashCode() method. */
+    Boolean hashCode;
+    /** Whether hashCode() mixes its result, as in AutoValue_Foo. */
+    Boolean hashMix;
+    /** The initial value of the hash code, as in AutoValue_Foo. */
+    String hashInit;
+    /** Whether to generate a toString() method. */
+    Boolean toString;
+    /** Whether to generate an appendTo(StringBuilder) method, used by toString(). */
+    Boolean appendTo;
+    /** Whether the appendTo(StringBuilder) method implements an abstract method. */
+    Boolean appendToOverride;
+    /** The initial capacity of the StringBuilder used by toString(). */
+    Integer toStringCapacity;
+
+    /** The simple name of the class with the {@code @AutoValue} annotation. */
+    String simpleClassName;
+
+    /** The simple name of the generated flyweight class. */
+    String flyweightClass;
+
+    private static final SimpleNode TEMPLATE =
+        parsedTemplateForResource("flyweight.vm", "hashcode.vm");
+
+    @Override
+    SimpleNode parsedTemplate() {
+      return TEMPLATE;
+    }
+  }
+}
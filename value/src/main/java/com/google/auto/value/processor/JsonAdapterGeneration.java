@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a JSON adapter for {@code @AutoValue} classes marked
+ * {@code @AutoValue(jsonAdapter = true)}.
+ *
+ * <p>If the type is com.example.Foo then the generated AutoValue subclass is
+ * com.example.AutoValue_Foo and the adapter is com.example.AutoValue_Foo_JsonAdapter. The adapter
+ * writes each property directly to an {@link Appendable}, with the member names in precomputed
+ * string constants, and reads JSON with a small pull tokenizer over a
+ * {@link java.io.PushbackReader}, so neither direction uses reflection or needs a JSON library.
+ * Since the adapter is in the same package as the generated subclass, it can call the subclass's
+ * constructor directly.
+ */
+class JsonAdapterGeneration extends CompanionGeneration {
+  JsonAdapterGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    super(processingEnv, type);
+  }
+
+  /**
+   * Writes the JSON adapter for the given type, if it is annotated
+   * {@code @AutoValue(jsonAdapter = true)}. If any property has a type that the adapter cannot
+   * handle, reports an error instead.
+   *
+   * @param autoVars the template variables defined for this type.
+   */
+  void maybeWriteJsonAdapter(AutoValueTemplateVars autoVars) {
+    if (!type.getAnnotation(AutoValue.class).jsonAdapter()) {
+      return;
+    }
+    JsonAdapterTemplateVars vars = new JsonAdapterTemplateVars();
+    vars.copyCommonVars(autoVars);
+    String className = companionClassName(autoVars, "_JsonAdapter");
+    vars.adapterClass = TypeSimplifier.simpleNameOf(className);
+
+    Set<String> identifiers = new HashSet<String>();
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      identifiers.add(prop.toString());
+    }
+    vars.value = newIdentifier("value", identifiers);
+    vars.out = newIdentifier("out", identifiers);
+    vars.in = newIdentifier("in", identifiers);
+    vars.name = newIdentifier("name", identifiers);
+
+    boolean errors = false;
+    TreeMap<String, ArrayHelper> arrayHelpers = new TreeMap<String, ArrayHelper>();
+    vars.props = new ArrayList<Property>();
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      Property jsonProp = jsonProperty(prop, identifiers, vars.props.isEmpty());
+      if (jsonProp == null) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "@AutoValue(jsonAdapter = true) does not support properties of type "
+                + prop.getTypeMirror(),
+            prop.getMethod());
+        errors = true;
+        continue;
+      }
+      jsonProp.readWith(prop.readFromCompanion(vars.value, vars.subclass, vars.wildcardTypes));
+      vars.props.add(jsonProp);
+      if (jsonProp.arrayHelper != null) {
+        arrayHelpers.put(jsonProp.arrayHelper.toString(), jsonProp.arrayHelper);
+      }
+    }
+    if (errors) {
+      return;
+    }
+    vars.arrayHelpers = new ArrayList<ArrayHelper>(arrayHelpers.values());
+    writeSourceFile(className, vars);
+  }
+
+  // Returns a Property describing how to write and read the given property, or null if its type is
+  // not supported.
+  private Property jsonProperty(
+      AutoValueProcessor.Property prop, Set<String> identifiers, boolean first) {
+    TypeMirror propType = prop.getTypeMirror();
+    TypeKind kind = propType.getKind();
+    String form;
+    ArrayHelper arrayHelper = null;
+    String adapter = "";
+    if (kind.isPrimitive()) {
+      form = kind.name();
+    } else if (kind == TypeKind.ARRAY) {
+      TypeKind elementKind = ((ArrayType) propType).getComponentType().getKind();
+      if (!elementKind.isPrimitive()) {
+        return null;
+      }
+      form = "ARRAY";
+      arrayHelper = new ArrayHelper(elementKind);
+    } else if (kind == TypeKind.DECLARED) {
+      TypeElement element = (TypeElement) ((DeclaredType) propType).asElement();
+      AutoValue autoValue = element.getAnnotation(AutoValue.class);
+      if (element.getQualifiedName().contentEquals("java.lang.String")) {
+        form = "STRING";
+      } else if (element.getKind() == ElementKind.ENUM) {
+        form = "ENUM";
+      } else if (autoValue != null && autoValue.jsonAdapter()
+          && element.getTypeParameters().isEmpty()) {
+        form = "NESTED";
+        adapter = AutoValueProcessor.generatedClassName(element, "AutoValue_") + "_JsonAdapter";
+        String adapterPkg = TypeSimplifier.packageNameOf(element);
+        if (adapterPkg.equals(TypeSimplifier.packageNameOf(type))) {
+          adapter = TypeSimplifier.simpleNameOf(adapter);
+        }
+      } else {
+        try {
+          form = processingEnv.getTypeUtils().unboxedType(propType).getKind().name();
+        } catch (IllegalArgumentException e) {
+          // Not a boxed primitive type.
+          return null;
+        }
+      }
+    } else {
+      return null;
+    }
+    String nameConstant = newIdentifier(prop + "Name", identifiers);
+    String seen = newIdentifier(prop + "Seen", identifiers);
+    return new Property(prop, form, arrayHelper, adapter, first, nameConstant, seen);
+  }
+
+  /**
+   * The helper methods that the generated adapter uses to write and read arrays with a given
+   * primitive element type. The string form of an instance is the suffix of the method names, for
+   * example {@code IntArray} for {@code writeIntArray} and {@code readIntArray}.
+   */
+  public static class ArrayHelper {
+    private final TypeKind elementKind;
+
+    ArrayHelper(TypeKind elementKind) {
+      this.elementKind = elementKind;
+    }
+
+    @Override public String toString() {
+      String name = elementKind.name();
+      return name.charAt(0) + name.substring(1).toLowerCase(Locale.ENGLISH) + "Array";
+    }
+
+    public String getElementType() {
+      return elementKind.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /** Returns how each element is written and read, which is the name of its primitive kind. */
+    public String getElementForm() {
+      return elementKind.name();
+    }
+  }
+
+  public static class Property {
+    private final AutoValueProcessor.Property property;
+    private final String form;
+    private final ArrayHelper arrayHelper;
+    private final String adapter;
+    private final boolean first;
+    private final String nameConstant;
+    private final String seen;
+    private String read;
+
+    Property(
+        AutoValueProcessor.Property property,
+        String form,
+        ArrayHelper arrayHelper,
+        String adapter,
+        boolean first,
+        String nameConstant,
+        String seen) {
+      this.property = property;
+      this.form = form;
+      this.arrayHelper = arrayHelper;
+      this.adapter = adapter;
+      this.first = first;
+      this.nameConstant = nameConstant;
+      this.seen = seen;
+    }
+
+    @Override public String toString() {
+      return property.toString();
+    }
+
+    /** Returns the name of the property, which is also the name of its JSON member. */
+    public String getName() {
+      return property.getName();
+    }
+
+    /** Records the expression that reads this property from the value being written. */
+    void readWith(String read) {
+      this.read = read;
+    }
+
+    /**
+     * Returns an expression for the value of this property in the value being written. For an
+     * array property of the generated subclass this calls the static accessor of the array, since
+     * the getter would copy the array.
+     */
+    public String getRead() {
+      return read;
+    }
+
+    public String getType() {
+      return property.getType();
+    }
+
+    public boolean isNullable() {
+      return property.isNullable();
+    }
+
+    /**
+     * Returns how the property is written and read: the name of its primitive kind, after unboxing
+     * if it is a boxed primitive, or one of {@code STRING}, {@code ENUM}, {@code ARRAY} and
+     * {@code NESTED}.
+     */
+    public String getForm() {
+      return form;
+    }
+
+    /** Returns the helper methods used for an array property. */
+    public ArrayHelper getArrayHelper() {
+      return arrayHelper;
+    }
+
+    /** Returns the name of the adapter class used for a nested {@code @AutoValue} property. */
+    public String getAdapter() {
+      return adapter;
+    }
+
+    /**
+     * Returns the name of the constant that holds the text written before the value of this
+     * property, for example {@code ,"foo":}.
+     */
+    public String getNameConstant() {
+      return nameConstant;
+    }
+
+    /**
+     * Returns the Java string literal for the text written before the value of this property. The
+     * text begins with the opening brace of the object for the first property, and with a comma for
+     * the others.
+     */
+    public String getNameLiteral() {
+      return "\"" + (first ? "{" : ",") + "\\\"" + property.getName() + "\\\":\"";
+    }
+
+    /** Returns the name of the local variable that records whether the property has been read. */
+    public String getSeen() {
+      return seen;
+    }
+
+    /** Returns the value of the local variable for the property before it has been read. */
+    public String getInitialValue() {
+      if (!property.getKind().isPrimitive()) {
+        return "null";
+      }
+      return property.getKind() == TypeKind.BOOLEAN ? "false" : "0";
+    }
+  }
+
+  @SuppressWarnings("unused")  // some fields are only read through reflection
+  static class JsonAdapterTemplateVars extends CompanionTemplateVars {
+    /** The properties defined by the parent class's abstract methods. */
+    List<Property> props;
+
+    /** The helper methods needed to write and read the array properties. */
+    List<ArrayHelper> arrayHelpers;
+
+    /** The simple name of the generated adapter class. */
+    String adapterClass;
+
+    /**
+     * The names of the parameters and local variables of the generated methods, chosen so as not
+     * to clash with the local variables named after properties.
+     */
+    String value;
+    String out;
+    String in;
+    String name;
+
+    private static final SimpleNode TEMPLATE = parsedTemplateForResource("jsonadapter.vm");
+
+    @Override
+    SimpleNode parsedTemplate() {
+      return TEMPLATE;
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+
+/**
+ * Generates a mutable companion class for {@code @AutoValue} classes marked
+ * {@code @AutoValue(mutable = true)}.
+ *
+ * <p>If the type is com.example.Foo then the generated AutoValue subclass is
+ * com.example.AutoValue_Foo and the mutable class is com.example.AutoValue_Foo_Mutable. It has a
+ * non-final field for each property with exactly the type of the property, so one instance can be
+ * cleared and refilled any number of times without allocating. Its {@code hashCode()} is computed
+ * in the same way as that of AutoValue_Foo, so the two agree for the same property values.
+ */
+class MutableGeneration extends CompanionGeneration {
+  MutableGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    super(processingEnv, type);
+  }
+
+  /**
+   * Writes the mutable class for the given type, if it is annotated
+   * {@code @AutoValue(mutable = true)}.
+   *
+   * @param autoVars the template variables defined for this type.
+   */
+  void maybeWriteMutable(AutoValueTemplateVars autoVars) {
+    if (!type.getAnnotation(AutoValue.class).mutable()) {
+      return;
+    }
+    MutableTemplateVars vars = new MutableTemplateVars();
+    vars.copyCommonVars(autoVars);
+    vars.arrays = autoVars.arrays;
+    vars.equals = autoVars.equals;
+    vars.hashCode = autoVars.hashCode;
+    vars.hashMix = autoVars.hashMix;
+    vars.hashInit = autoVars.hashSeed.isEmpty()
+        ? autoVars.hashInit
+        : autoVars.subclass + "." + autoVars.hashSeed;
+    String className = companionClassName(autoVars, "_Mutable");
+    vars.mutableClass = TypeSimplifier.simpleNameOf(className);
+
+    vars.props = new ArrayList<Property>();
+    vars.hashedProps = new ArrayList<Property>();
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      Property mutableProp =
+          new Property(prop, prop.readFromCompanion("value", vars.subclass, vars.wildcardTypes));
+      vars.props.add(mutableProp);
+      if (!prop.isExcludedFromEquals()) {
+        vars.hashedProps.add(mutableProp);
+      }
+    }
+    writeSourceFile(className, vars);
+  }
+
+  public static class Property {
+    private final AutoValueProcessor.Property property;
+    private final String read;
+
+    Property(AutoValueProcessor.Property property, String read) {
+      this.property = property;
+      this.read = read;
+    }
+
+    @Override public String toString() {
+      return property.toString();
+    }
+
+    public String getName() {
+      return property.getName();
+    }
+
+    public String getGetter() {
+      return property.getGetter();
+    }
+
+    public String getType() {
+      return property.getType();
+    }
+
+    public TypeKind getKind() {
+      return property.getKind();
+    }
+
+    public boolean isEnum() {
+      return property.isEnum();
+    }
+
+    /**
+     * Returns an expression for the value of this property in the parameter {@code value} of
+     * {@code copyFrom}. For an array property of the generated subclass this calls the static
+     * accessor of the array, since the getter would copy the array and {@code copyFrom} copies it
+     * anyway.
+     */
+    public String getRead() {
+      return read;
+    }
+
+    /**
+     * Returns true if {@code copyFrom} and {@code toImmutable()} must copy this property, because
+     * it is an array that the mutable object does not own exclusively.
+     */
+    public boolean isCopiedArray() {
+      return property.isCopiedArray();
+    }
+
+    /** Returns the value of the field for this property after {@code clear()}. */
+    public String getDefaultValue() {
+      TypeKind kind = property.getKind();
+      if (kind == TypeKind.BOOLEAN) {
+        return "false";
+      } else if (kind.isPrimitive()) {
+        return "0";
+      } else {
+        return "null";
+      }
+    }
+  }
+
+  @SuppressWarnings("unused")  // some fields are only read through reflection
+  static class MutableTemplateVars extends CompanionTemplateVars {
+    /** The properties defined by the parent class's abstract methods. */
+    List<Property> props;
+    /** The properties that equals(Object) and hashCode() use, as in AutoValue_Foo. */
+    List<Property> hashedProps;
+
+    /** Whether to generate an equals(Object) method. */
+    Boolean equals;
+    /** Whether to generate a hashCode() method. */
+    Boolean hashCode;
+    /** Whether hashCode() mixes its result, as in AutoValue_Foo. */
+    Boolean hashMix;
+    /** The initial value of the hash code, as in AutoValue_Foo. */
+    String hashInit;
+
+    /** The spelling of the java.util.Arrays class: Arrays or java.util.Arrays. */
+    String arrays;
+
+    /** The simple name of the generated mutable class. */
+    String mutableClass;
+
+    private static final SimpleNode TEMPLATE =
+        parsedTemplateForResource("mutable.vm", "hashcode.vm");
+
+    @Override
+    SimpleNode parsedTemplate() {
+      return TEMPLATE;
+    }
+  }
+}
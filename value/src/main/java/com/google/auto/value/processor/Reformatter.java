@@ -1,5 +1,9 @@
 package com.google.auto.value.processor;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+
 /**
  * Postprocessor that runs over the output of the template engine in order to make it look nicer.
  * Mostly, this involves removing surplus horizontal and vertical space.
@@ -7,6 +11,9 @@ package com.google.auto.value.processor;
  * @author emcmanus@google.com (Éamonn McManus)
  */
 class Reformatter {
+  private static final Pattern CLASS_DECLARATION =
+      Pattern.compile("\\b(class|enum|interface)\\b");
+
   static String fixup(String s) {
     s = removeTrailingSpace(s);
     s = compressBlankLines(s);
@@ -37,14 +44,33 @@ class Reformatter {
   private static String compressBlankLines(String s) {
     // Remove extra blank lines. An "extra" blank line is either a blank line where the previous
     // line was also blank; or a blank line that appears inside parentheses or inside more than one
-    // set of braces. This means that we preserve blank lines inside our top-level class, but not
-    // within our generated methods.
+    // set of braces, unless the innermost braces are the body of a nested class. This means that we
+    // preserve blank lines inside our top-level class and any nested classes, but not within our
+    // generated methods.
     StringBuilder sb = new StringBuilder(s.length());
     int braces = 0;
     int parens = 0;
+    int lineStart = 0;
+    Deque<Integer> classBodies = new ArrayDeque<Integer>();
     for (int i = 0; i < s.length(); i++) {
       char c = s.charAt(i);
       switch (c) {
+        case '"':
+        case '\'':
+          // Copy a string or character literal as it is, so that braces and parentheses inside it
+          // are not counted. A quote that is not closed on the same line, like an apostrophe in a
+          // comment, is an ordinary character.
+          int end = i + 1;
+          while (end < s.length() && s.charAt(end) != c && s.charAt(end) != '\n') {
+            end += (s.charAt(end) == '\\') ? 2 : 1;
+          }
+          if (end >= s.length() || s.charAt(end) != c) {
+            break;
+          }
+          sb.append(s, i, end);
+          i = end;
+          c = s.charAt(i);
+          break;
         case '(':
           parens++;
           break;
@@ -53,8 +79,14 @@ class Reformatter {
           break;
         case '{':
           braces++;
+          if (CLASS_DECLARATION.matcher(s.substring(lineStart, i)).find()) {
+            classBodies.push(braces);
+          }
           break;
         case '}':
+          if (!classBodies.isEmpty() && classBodies.peek() == braces) {
+            classBodies.pop();
+          }
           braces--;
           break;
         case '\n':
@@ -63,11 +95,14 @@ class Reformatter {
             j++;
           }
           if (j > i + 1) {
-            if (parens == 0 && braces <= 1) {
+            boolean inClassBody =
+                braces <= 1 || (!classBodies.isEmpty() && classBodies.peek() == braces);
+            if (parens == 0 && inClassBody) {
               sb.append("\n");
             }
             i = j - 1;
           }
+          lineStart = i + 1;
           break;
       }
       sb.append(c);
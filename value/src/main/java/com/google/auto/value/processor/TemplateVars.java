@@ -16,6 +16,7 @@
 package com.google.auto.value.processor;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
 
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.runtime.log.NullLogChute;
@@ -24,11 +25,11 @@ import org.apache.velocity.runtime.RuntimeInstance;
 import org.apache.velocity.runtime.parser.ParseException;
 import org.apache.velocity.runtime.parser.node.SimpleNode;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 
@@ -39,10 +40,11 @@ import java.lang.reflect.Modifier;
  * of the fields have been assigned, the {@link #toText()} method returns the result of substituting
  * them into the template.
  *
- * <p>The subclass must be a direct subclass of this class. Fields cannot be static unless they are
- * also final. They cannot be private, though they can be package-private if the class is in the
- * same package as this class. They cannot be primitive or null, so that there is a clear indication
- * when a field has not been set.
+ * <p>The subclass must be a direct subclass of this class, or of an abstract class that is itself a
+ * direct subclass of this class and defines variables that several templates share. Fields cannot
+ * be static unless they are also final. They cannot be private, though they can be package-private
+ * if the class is in the same package as this class. They cannot be primitive or null, so that
+ * there is a clear indication when a field has not been set.
  *
  * @author Éamonn McManus
  */
@@ -71,11 +73,22 @@ abstract class TemplateVars {
   private final ImmutableList<Field> fields;
 
   TemplateVars() {
-    if (getClass().getSuperclass() != TemplateVars.class) {
-      throw new IllegalArgumentException("Class must extend TemplateVars directly");
+    Class<?> superclass = getClass().getSuperclass();
+    if (superclass != TemplateVars.class
+        && (superclass.getSuperclass() != TemplateVars.class
+            || !Modifier.isAbstract(superclass.getModifiers()))) {
+      throw new IllegalArgumentException(
+          "Class must extend TemplateVars directly or through one abstract class");
     }
     ImmutableList.Builder<Field> fields = ImmutableList.builder();
-    Field[] declaredFields = getClass().getDeclaredFields();
+    for (Class<?> c = getClass(); c != TemplateVars.class; c = c.getSuperclass()) {
+      addFields(c, fields);
+    }
+    this.fields = fields.build();
+  }
+
+  private static void addFields(Class<?> c, ImmutableList.Builder<Field> fields) {
+    Field[] declaredFields = c.getDeclaredFields();
     for (Field field : declaredFields) {
       if (field.isSynthetic() || isStaticFinal(field)) {
         continue;
@@ -91,7 +104,6 @@ abstract class TemplateVars {
       }
       fields.add(field);
     }
-    this.fields = fields.build();
   }
 
   /**
@@ -126,18 +138,37 @@ abstract class TemplateVars {
     return velocityContext;
   }
 
-  static SimpleNode parsedTemplateForResource(String resourceName) {
+  /**
+   * Returns the parsed template in the given resource. Velocity macros are local to the template
+   * that defines them, so the macros that several templates share are in resources of their own,
+   * and the text of each of {@code macroResourceNames} is appended to the template before it is
+   * parsed. Appending rather than prepending keeps the line numbers of the template itself right.
+   */
+  static SimpleNode parsedTemplateForResource(String resourceName, String... macroResourceNames) {
+    StringBuilder text = new StringBuilder(resourceText(resourceName));
+    for (String macroResourceName : macroResourceNames) {
+      text.append(resourceText(macroResourceName));
+    }
+    try {
+      return velocityRuntimeInstance.parse(new StringReader(text.toString()), resourceName);
+    } catch (ParseException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static String resourceText(String resourceName) {
     InputStream in = AutoValueTemplateVars.class.getResourceAsStream(resourceName);
     if (in == null) {
       throw new IllegalArgumentException("Could not find resource: " + resourceName);
     }
     try {
-      Reader reader = new InputStreamReader(in, "UTF-8");
-      return velocityRuntimeInstance.parse(reader, resourceName);
-    } catch (UnsupportedEncodingException e) {
-      throw new AssertionError(e);
-    } catch (ParseException e) {
-      throw new AssertionError(e);
+      try {
+        return CharStreams.toString(new InputStreamReader(in, "UTF-8"));
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read resource: " + resourceName, e);
     }
   }
 
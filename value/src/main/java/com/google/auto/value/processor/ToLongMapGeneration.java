@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.auto.value.processor;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a hash map from keys to {@code long} values for {@code @AutoValue} classes marked
+ * {@code @AutoValue(toLongMap = true)}.
+ *
+ * <p>If the type is com.example.Foo then the generated AutoValue subclass is
+ * com.example.AutoValue_Foo and the map is com.example.AutoValue_Foo_ToLongMap. The map is an
+ * open-addressing hash table with linear probing. The properties of the keys are stored in
+ * parallel arrays, one per property, like the columns of {@link ColumnsGeneration}, and the values
+ * in a {@code long[]}, so an entry does not need any objects of its own. The methods of the map
+ * take the properties of the key as separate parameters, so looking up or updating an entry does
+ * not create an instance of AutoValue_Foo either.
+ */
+class ToLongMapGeneration extends CompanionGeneration {
+  ToLongMapGeneration(ProcessingEnvironment processingEnv, TypeElement type) {
+    super(processingEnv, type);
+  }
+
+  /**
+   * Writes the map class for the given type, if it is annotated
+   * {@code @AutoValue(toLongMap = true)}. If any property is an array, reports an error instead,
+   * since arrays are mutable and so are not suitable as parts of a key.
+   *
+   * @param autoVars the template variables defined for this type.
+   */
+  void maybeWriteToLongMap(AutoValueTemplateVars autoVars) {
+    if (!type.getAnnotation(AutoValue.class).toLongMap()) {
+      return;
+    }
+    ToLongMapTemplateVars vars = new ToLongMapTemplateVars();
+    vars.copyCommonVars(autoVars);
+    vars.arrays = autoVars.arrays;
+    vars.map = autoVars.map;
+    vars.linkedHashMap = autoVars.linkedHashMap;
+    vars.hashMix = autoVars.hashMix;
+    vars.hashInit = autoVars.hashSeed.isEmpty()
+        ? autoVars.hashInit
+        : autoVars.subclass + "." + autoVars.hashSeed;
+    String className = companionClassName(autoVars, "_ToLongMap");
+    vars.mapClass = TypeSimplifier.simpleNameOf(className);
+
+    Set<String> identifiers = new HashSet<String>();
+    boolean errors = false;
+    boolean uncheckedCast = false;
+    vars.props = new ArrayList<ColumnsGeneration.Property>();
+    vars.hashedProps = new ArrayList<ColumnsGeneration.Property>();
+    for (AutoValueProcessor.Property prop : autoVars.props) {
+      if (prop.getKind() == TypeKind.ARRAY) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "@AutoValue(toLongMap = true) does not support array properties", prop.getMethod());
+        errors = true;
+        continue;
+      }
+      identifiers.add(prop.toString());
+      boolean erased = TypeSimplifier.isCastingUnchecked(prop.getTypeMirror());
+      uncheckedCast |= erased;
+      ColumnsGeneration.Property mapProp = new ColumnsGeneration.Property(prop, erased);
+      vars.props.add(mapProp);
+      if (!prop.isExcludedFromEquals()) {
+        vars.hashedProps.add(mapProp);
+      }
+    }
+    if (errors) {
+      return;
+    }
+    vars.uncheckedCast = uncheckedCast;
+    vars.value = newIdentifier("value", identifiers);
+    vars.delta = newIdentifier("delta", identifiers);
+    vars.defaultValue = newIdentifier("defaultValue", identifiers);
+    vars.slot = newIdentifier("slot", identifiers);
+    vars.h = newIdentifier("h", identifiers);
+    writeSourceFile(className, vars);
+  }
+
+  @SuppressWarnings("unused")  // some fields are only read through reflection
+  static class ToLongMapTemplateVars extends CompanionTemplateVars {
+    /** The properties defined by the parent class's abstract methods. */
+    List<ColumnsGeneration.Property> props;
+    /** The properties that keys are compared and hashed by, as in AutoValue_Foo. */
+    List<ColumnsGeneration.Property> hashedProps;
+
+    /** Whether the hash of a key is mixed, as in the hashCode() of AutoValue_Foo. */
+    Boolean hashMix;
+    /** The initial value of the hash of a key, as in the hashCode() of AutoValue_Foo. */
+    String hashInit;
+
+    /** Whether creating a key from its columns requires an unchecked cast. */
+    Boolean uncheckedCast;
+
+    /** The simple name of the generated map class. */
+    String mapClass;
+
+    /** The spelling of the java.util.Arrays class: Arrays or java.util.Arrays. */
+    String arrays;
+
+    /** The spelling of the java.util.Map class: Map or java.util.Map. */
+    String map;
+
+    /** The spelling of the java.util.LinkedHashMap class. */
+    String linkedHashMap;
+
+    /**
+     * The names of the parameters and local variables of the generated methods that also have
+     * parameters named after properties, chosen so as not to clash with those.
+     */
+    String value;
+    String delta;
+    String defaultValue;
+    String slot;
+    String h;
+
+    private static final SimpleNode TEMPLATE =
+        parsedTemplateForResource("tolongmap.vm", "hashcode.vm");
+
+    @Override
+    SimpleNode parsedTemplate() {
+      return TEMPLATE;
+    }
+  }
+}
@@ -25,6 +25,8 @@ import junit.framework.TestCase;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.processing.ProcessingEnvironment;
@@ -74,15 +76,25 @@ public class CompilationTest extends TestCase {
         "  }",
         "",
         "  @Override public String toString() {",
-        "    return \"Baz{\"",
-        "        + \"buh=\" + buh",
-        "        + \"}\";",
+        "    return appendTo(new StringBuilder(22)).toString();",
+        "  }",
+        "",
+        "  public StringBuilder appendTo(StringBuilder sb) {",
+        "    sb.append(\"Baz{\");",
+        "    sb.append(\"buh=\");",
+        "    sb.append(this.buh);",
+        "    sb.append(\"}\");",
+        "    return sb;",
         "  }",
         "",
         "  @Override public boolean equals(Object o) {",
         "    if (o == this) {",
         "      return true;",
         "    }",
+        "    if (o instanceof AutoValue_Baz) {",
+        "      AutoValue_Baz that = (AutoValue_Baz) o;",
+        "      return (this.buh == that.buh);",
+        "    }",
         "    if (o instanceof Baz) {",
         "      Baz that = (Baz) o;",
         "      return (this.buh == that.buh());",
@@ -163,21 +175,32 @@ public class CompilationTest extends TestCase {
         "  }",
         "",
         "  @Override public String toString() {",
-        "    return \"Baz{\"",
-        "        + \"ints=\" + Arrays.toString(ints) + \", \"",
-        "        + \"arrays=\" + arrays",
-        "        + \"}\";",
+        "    return appendTo(new StringBuilder(69)).toString();",
+        "  }",
+        "",
+        "  public StringBuilder appendTo(StringBuilder sb) {",
+        "    sb.append(\"Baz{\");",
+        "    sb.append(\"ints=\");",
+        "    sb.append(Arrays.toString(this.ints));",
+        "    sb.append(\", arrays=\");",
+        "    sb.append(this.arrays);",
+        "    sb.append(\"}\");",
+        "    return sb;",
         "  }",
         "",
         "  @Override public boolean equals(Object o) {",
         "    if (o == this) {",
         "      return true;",
         "    }",
+        "    if (o instanceof AutoValue_Baz) {",
+        "      AutoValue_Baz that = (AutoValue_Baz) o;",
+        "      return (this.arrays.equals(that.arrays))",
+        "          && (Arrays.equals(this.ints, that.ints));",
+        "    }",
         "    if (o instanceof Baz) {",
         "      Baz that = (Baz) o;",
-        "      return (Arrays.equals(this.ints, (that instanceof AutoValue_Baz) "
-                      + "? ((AutoValue_Baz) that).ints : that.ints()))",
-        "          && (this.arrays.equals(that.arrays()));",
+        "      return (this.arrays.equals(that.arrays()))",
+        "          && (Arrays.equals(this.ints, that.ints()));",
         "    }",
         "    return false;",
         "  }",
@@ -199,6 +222,60 @@ public class CompilationTest extends TestCase {
         .and().generatesSources(expectedOutput);
   }
 
+  public void testHugeMethodsCompile() throws Exception {
+    // With this many properties, the generated equals, hashCode and toString methods are all split
+    // into helper methods. Check that the result compiles for every kind of property. There can't
+    // be many more properties, since a constructor can have at most 255 words of parameters.
+    String[] types = {
+      "int", "long", "double", "boolean", "String", "@Nullable String", "int[]", "Color", "float",
+      "Baz",
+    };
+    List<String> lines = new ArrayList<String>();
+    lines.add("package foo.bar;");
+    lines.add("import com.google.auto.value.AutoValue;");
+    lines.add("import javax.annotation.Nullable;");
+    lines.add("@AutoValue(packFields = true)");
+    lines.add("public abstract class Baz {");
+    lines.add("  public enum Color {RED, GREEN}");
+    for (int i = 0; i < 200; i++) {
+      lines.add("  public abstract " + types[i % types.length] + " p" + i + "();");
+    }
+    lines.add("}");
+    JavaFileObject javaFileObject =
+        JavaFileObjects.forSourceLines("foo.bar.Baz", lines.toArray(new String[0]));
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .compilesWithoutError();
+  }
+
+  public void testHugeMethodHelperNamesDoNotClash() throws Exception {
+    // The helper methods of the split equals, hashCode and toString methods would clash with these
+    // methods of the parent class, which they cannot override, and with the property hashCode1,
+    // if they were given their usual names.
+    List<String> lines = new ArrayList<String>();
+    lines.add("package foo.bar;");
+    lines.add("import com.google.auto.value.AutoValue;");
+    lines.add("import javax.annotation.Nullable;");
+    lines.add("@AutoValue");
+    lines.add("public abstract class Baz {");
+    lines.add("  public abstract int hashCode1();");
+    for (int i = 0; i < 200; i++) {
+      lines.add("  @Nullable public abstract String p" + i + "();");
+    }
+    lines.add("  boolean equalFields0(AutoValue_Baz that) { return false; }");
+    lines.add("  boolean equalProperties0(Baz that) { return false; }");
+    lines.add("  int hashCode0(int h) { return h; }");
+    lines.add("  void appendProperties0(StringBuilder sb) {}");
+    lines.add("}");
+    JavaFileObject javaFileObject =
+        JavaFileObjects.forSourceLines("foo.bar.Baz", lines.toArray(new String[0]));
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .compilesWithoutError();
+  }
+
   public void testNoMultidimensionalPrimitiveArrays() throws Exception {
     JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
         "foo.bar.Baz",
@@ -345,6 +422,381 @@ public class CompilationTest extends TestCase {
     }
   }
 
+  public void testBogusMemoizedMethod() throws Exception {
+    String[][] mistakes = {
+      {"abstract String derived();", "@Memoized methods cannot be abstract"},
+      {"private String derived() { return null; }", "@Memoized methods cannot be private"},
+      {"static String derived() { return null; }", "@Memoized methods cannot be static"},
+      {"final String derived() { return null; }", "@Memoized methods cannot be final"},
+      {"String derived(int i) { return null; }", "@Memoized methods cannot have parameters"},
+      {"void derived() {}", "@Memoized methods cannot be void"},
+    };
+    for (String[] mistake : mistakes) {
+      JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+          "foo.bar.Baz",
+          "package foo.bar;",
+          "",
+          "import com.google.auto.value.AutoValue;",
+          "import com.google.auto.value.Memoized;",
+          "",
+          "@AutoValue",
+          "public abstract class Baz {",
+          "  public abstract int foo();",
+          "",
+          "  @Memoized " + mistake[0],
+          "}");
+      assert_().about(javaSource())
+          .that(javaFileObject)
+          .processedWith(new AutoValueProcessor())
+          .failsToCompile()
+          .withErrorContaining(mistake[1])
+          .in(javaFileObject).onLine(10);
+    }
+  }
+
+  public void testNegativeInternMaximumSize() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(intern = true, internMaximumSize = -1)",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("internMaximumSize cannot be negative")
+        .in(javaFileObject).onLine(6);
+  }
+
+  public void testNegativeToStringElementLimit() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(toStringElementLimit = -1)",
+        "public abstract class Baz {",
+        "  public abstract int[] foo();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("toStringElementLimit cannot be negative")
+        .in(javaFileObject).onLine(6);
+  }
+
+  public void testAbstractAppendToWithExplicitToString() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "",
+        "  public abstract StringBuilder appendTo(StringBuilder sb);",
+        "",
+        "  @Override public String toString() {",
+        "    return \"Baz\";",
+        "  }",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("unless its toString() method is generated")
+        .in(javaFileObject).onLine(9);
+  }
+
+  public void testSharedArrayNotArray() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "import com.google.auto.value.SharedArray;",
+        "",
+        "@AutoValue",
+        "public abstract class Baz {",
+        "  @SharedArray public abstract String foo();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("@SharedArray can only be applied to an array-valued property")
+        .in(javaFileObject).onLine(8);
+  }
+
+  public void testBinaryCodecUnsupportedType() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "import java.util.List;",
+        "",
+        "@AutoValue(binaryCodec = true)",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "  public abstract List<String> bar();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("binaryCodec = true) does not support properties of type "
+            + "java.util.List<java.lang.String>")
+        .in(javaFileObject).onLine(9);
+  }
+
+  public void testBinaryCodecDoesNotCopyArrays() throws Exception {
+    // The getter of an array property returns a copy of the array, so the codec reads the array
+    // through a static accessor of the generated subclass instead, and the field stays private.
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(binaryCodec = true)",
+        "public abstract class Baz {",
+        "  public abstract byte[] bytes();",
+        "}");
+    JavaFileObject expectedOutput = JavaFileObjects.forSourceLines(
+        "foo.bar.AutoValue_Baz_BinaryCodec",
+        "package foo.bar;",
+        "",
+        "import java.util.Arrays;",
+        "import javax.annotation.Generated;",
+        "import java.nio.ByteBuffer;",
+        "",
+        "@Generated(\"" + AutoValueProcessor.class.getName() + "\")",
+        "public final class AutoValue_Baz_BinaryCodec {",
+        "  private AutoValue_Baz_BinaryCodec() {}",
+        "",
+        "  public static void encode(Baz value, ByteBuffer buffer) {",
+        "    putByteArray(((value instanceof AutoValue_Baz)",
+        "        ? AutoValue_Baz.bytesWithoutCopy((AutoValue_Baz) value) : value.bytes()), buffer);",
+        "  }",
+        "",
+        "  public static Baz decode(ByteBuffer buffer) {",
+        "    byte[] bytes = getByteArray(buffer);",
+        "    return new AutoValue_Baz(bytes);",
+        "  }",
+        "",
+        "  public static int encodedSize(Baz value) {",
+        "    int size = 0;",
+        "    size += 4 + ((value instanceof AutoValue_Baz)",
+        "        ? AutoValue_Baz.bytesWithoutCopy((AutoValue_Baz) value) : value.bytes()).length;",
+        "    return size;",
+        "  }",
+        "",
+        "  private static int getLength(ByteBuffer buffer, int width) {",
+        "    int length = buffer.getInt();",
+        "    if (length < 0 || length > buffer.remaining() / width) {",
+        "      throw new IllegalArgumentException(",
+        "          \"Invalid length \" + length + \" with \" + buffer.remaining()"
+            + " + \" bytes remaining\");",
+        "    }",
+        "    return length;",
+        "  }",
+        "",
+        "  private static void putByteArray(byte[] array, ByteBuffer buffer) {",
+        "    buffer.putInt(array.length);",
+        "    buffer.put(array);",
+        "  }",
+        "",
+        "  private static byte[] getByteArray(ByteBuffer buffer) {",
+        "    byte[] array = new byte[getLength(buffer, 1)];",
+        "    buffer.get(array);",
+        "    return array;",
+        "  }",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .compilesWithoutError()
+        .and().generatesSources(expectedOutput);
+  }
+
+  public void testSerializationProxyNotSerializable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(serializationProxy = true)",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining(
+            "@AutoValue(serializationProxy = true) can only be used on a class that implements "
+                + "Serializable")
+        .in(javaFileObject).onLine(6);
+  }
+
+  public void testFlyweightUnsupportedType() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(flyweight = true)",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "  public abstract String bar();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining(
+            "@AutoValue(flyweight = true) does not support properties of type java.lang.String")
+        .in(javaFileObject).onLine(8);
+  }
+
+  public void testFlyweightWithAbstractGeneratedMethods() throws Exception {
+    // The flyweight class extends Baz, so it would have to implement these methods itself.
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(flyweight = true, withers = true, compareBy = \"foo\", fingerprint = true)",
+        "public abstract class Baz implements Comparable<Baz> {",
+        "  public abstract int foo();",
+        "  public abstract Baz withFoo(int foo);",
+        "  public abstract long fingerprint64();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoValue(flyweight = true) cannot implement the abstract methods "
+            + "compareTo, withFoo, fingerprint64")
+        .in(javaFileObject).onLine(6);
+  }
+
+  public void testToLongMapArrayProperty() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(toLongMap = true)",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "  public abstract int[] bar();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoValue(toLongMap = true) does not support array properties")
+        .in(javaFileObject).onLine(8);
+  }
+
+  public void testCompareByNotComparable() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "import java.util.List;",
+        "",
+        "@AutoValue(compareBy = {\"foo\", \"bar\"})",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "  public abstract List<String> bar();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("@AutoValue(compareBy) cannot compare bar")
+        .in(javaFileObject).onLine(9);
+  }
+
+  public void testWitherWithoutProperty() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(withers = true)",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "  public abstract Baz withBar(int bar);",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining("Abstract method withBar does not correspond to a property")
+        .in(javaFileObject).onLine(8);
+  }
+
+  public void testFingerprintUnsupportedType() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(fingerprint = true)",
+        "public abstract class Baz {",
+        "  public abstract int foo();",
+        "  public abstract Object bar();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining(
+            "@AutoValue(fingerprint = true) does not support properties of type java.lang.Object")
+        .in(javaFileObject).onLine(8);
+  }
+
+  public void testJsonAdapterUnsupportedType() throws Exception {
+    JavaFileObject javaFileObject = JavaFileObjects.forSourceLines(
+        "foo.bar.Baz",
+        "package foo.bar;",
+        "",
+        "import com.google.auto.value.AutoValue;",
+        "",
+        "@AutoValue(jsonAdapter = true)",
+        "public abstract class Baz {",
+        "  public abstract String foo();",
+        "  public abstract Object bar();",
+        "}");
+    assert_().about(javaSource())
+        .that(javaFileObject)
+        .processedWith(new AutoValueProcessor())
+        .failsToCompile()
+        .withErrorContaining(
+            "@AutoValue(jsonAdapter = true) does not support properties of type java.lang.Object")
+        .in(javaFileObject).onLine(8);
+  }
+
   public void testNonExistentSuperclass() throws Exception {
     // The main purpose of this test is to check that AutoValueProcessor doesn't crash the
     // compiler in this case.
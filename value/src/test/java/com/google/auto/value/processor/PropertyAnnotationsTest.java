@@ -122,15 +122,25 @@ public class PropertyAnnotationsTest extends TestCase {
             "  }",
             "",
             "  @Override public String toString() {",
-            "    return \"Baz{\"",
-            "        + \"buh=\" + buh",
-            "        + \"}\";",
+            "    return appendTo(new StringBuilder(22)).toString();",
+            "  }",
+            "",
+            "  public StringBuilder appendTo(StringBuilder sb) {",
+            "    sb.append(\"Baz{\");",
+            "    sb.append(\"buh=\");",
+            "    sb.append(this.buh);",
+            "    sb.append(\"}\");",
+            "    return sb;",
             "  }",
             "",
             "  @Override public boolean equals(Object o) {",
             "    if (o == this) {",
             "      return true;",
             "    }",
+            "    if (o instanceof AutoValue_Baz) {",
+            "      AutoValue_Baz that = (AutoValue_Baz) o;",
+            "      return (this.buh == that.buh);",
+            "    }",
             "    if (o instanceof Baz) {",
             "      Baz that = (Baz) o;",
             "      return (this.buh == that.buh());",
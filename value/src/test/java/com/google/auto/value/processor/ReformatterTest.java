@@ -70,4 +70,68 @@ public class ReformatterTest extends TestCase {
         + "}\n";
     assertEquals(output, Reformatter.fixup(input));
   }
+
+  public void testNestedClass() {
+    String input =
+        "\n"
+        + "public class Outer {\n"
+        + "\n"
+        + "  private static final class Inner {\n"
+        + "\n"
+        + "    private int field;\n"
+        + "\n"
+        + "\n"
+        + "    void method() {\n"
+        + "\n"
+        + "      field++;\n"
+        + "    }\n"
+        + "  }\n"
+        + "}\n";
+    String output =
+        "\n"
+        + "public class Outer {\n"
+        + "\n"
+        + "  private static final class Inner {\n"
+        + "\n"
+        + "    private int field;\n"
+        + "\n"
+        + "    void method() {\n"
+        + "      field++;\n"
+        + "    }\n"
+        + "  }\n"
+        + "}\n";
+    assertEquals(output, Reformatter.fixup(input));
+  }
+
+  public void testBracesInLiterals() {
+    String input =
+        "\n"
+        + "public class Json {\n"
+        + "  static final String OPEN = \"{\\\"a\\\":\";\n"
+        + "\n"
+        + "\n"
+        + "  void write() {\n"
+        + "    append('{');\n"
+        + "\n"
+        + "    append(\"(\");\n"
+        + "  }\n"
+        + "\n"
+        + "  // The class's last method.\n"
+        + "  void read() {}\n"
+        + "}\n";
+    String output =
+        "\n"
+        + "public class Json {\n"
+        + "  static final String OPEN = \"{\\\"a\\\":\";\n"
+        + "\n"
+        + "  void write() {\n"
+        + "    append('{');\n"
+        + "    append(\"(\");\n"
+        + "  }\n"
+        + "\n"
+        + "  // The class's last method.\n"
+        + "  void read() {}\n"
+        + "}\n";
+    assertEquals(output, Reformatter.fixup(input));
+  }
 }
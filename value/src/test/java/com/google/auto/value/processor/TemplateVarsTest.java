@@ -69,6 +69,35 @@ public class TemplateVarsTest extends TestCase {
     }
   }
 
+  abstract static class AbstractVars extends TemplateVars {
+    String string;
+  }
+
+  static class ConcreteVars extends AbstractVars {
+    Integer integer;
+
+    @Override SimpleNode parsedTemplate() {
+      return parsedTemplateForString("integer=$integer string=$string");
+    }
+  }
+
+  public void testAbstractSuperclass() {
+    ConcreteVars vars = new ConcreteVars();
+    vars.integer = 23;
+    vars.string = "wibble";
+    assertEquals("integer=23 string=wibble", vars.toText());
+  }
+
+  static class SubConcrete extends ConcreteVars {}
+
+  public void testSubAbstractSuperclass() {
+    try {
+      new SubConcrete();
+      fail("Did not get expected exception");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
   static class Private extends TemplateVars {
     Integer integer;
     private String string;